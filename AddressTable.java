@@ -0,0 +1,89 @@
+import java.util.Arrays;
+import java.util.HashMap;
+/**
+ * The <code>AddressTable</code> class maps router ids, which may be any
+ * non-negative int and need not be contiguous, to dense indexes 0..n-1
+ * in the order the routers were configured. The simulator and the routing
+ * algorithms index their arrays by the dense index, and only translate
+ * back to the router id when printing. It also records the routing
+ * area each router belongs to, area 0 unless configured otherwise.
+ */
+public class AddressTable
+{
+    private int[] ids = new int[16];
+    private int[] areas = new int[16];
+    private int size = 0;
+    // True while every router's id equals its index, lookups are then free.
+    private boolean dense = true;
+    private HashMap<Integer, Integer> index = new HashMap<Integer, Integer>();
+
+    /**
+     * Adds a router id, giving it the next index.
+     * @param id router id
+     * @return the router's index, or -1 if the id is negative or
+     * already present
+     */
+    public int add(int id)
+    {
+	if (id < 0 || index.containsKey(id)) return -1;
+	if (size == ids.length) {
+	    ids = Arrays.copyOf(ids, size * 2);
+	    areas = Arrays.copyOf(areas, size * 2);
+	}
+	ids[size] = id;
+	index.put(id, size);
+	if (id != size) dense = false;
+	return size++;
+    }
+
+    /**
+     * Gets the index of a router id.
+     * @param id router id
+     * @return the index, or -1 if the id is unknown
+     */
+    public int indexOf(int id)
+    {
+	if (dense) return (id >= 0 && id < size) ? id : -1;
+	Integer i = index.get(id);
+	return (i == null) ? -1 : i.intValue();
+    }
+
+    /**
+     * Gets the router id at an index.
+     * @param i index
+     * @return the router id
+     */
+    public int idOf(int i)
+    {
+	return ids[i];
+    }
+
+    /**
+     * Sets the routing area of the router at an index.
+     * @param i index
+     * @param area area id
+     */
+    public void setArea(int i, int area)
+    {
+	areas[i] = area;
+    }
+
+    /**
+     * Gets the routing area of the router at an index.
+     * @param i index
+     * @return area id
+     */
+    public int getArea(int i)
+    {
+	return areas[i];
+    }
+
+    /**
+     * Gets the number of routers.
+     * @return int
+     */
+    public int size()
+    {
+	return size;
+    }
+}
@@ -0,0 +1,82 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+
+/**
+ * The <code>Benchmark</code> class runs a generated grid topology with DV
+ * and reports the time and heap allocation per time step once the
+ * routing tables have converged. Simulator output is discarded.
+ */
+public class Benchmark
+{
+    /**
+     * Writes a side x side grid of DV routers to a temporary config file.
+     * @param side routers along each side of the grid
+     * @param store where DV keeps its tables, heap or direct
+     * @return the config file
+     */
+    private static File grid(int side, String store) throws IOException
+    {
+	File f = File.createTempFile("grid", ".cfg");
+	f.deleteOnExit();
+	PrintWriter w = new PrintWriter(f);
+	w.println("store "+store);
+	w.println("updateInt 1");
+	w.println("preverse on");
+	for (int r = 0; r < side * side; r++) {
+	    w.println("router "+r+" 4 DV");
+	}
+	// Interface 0 east, 1 west, 2 south, 3 north, wrapping into a torus.
+	for (int y = 0; y < side; y++) {
+	    for (int x = 0; x < side; x++) {
+		int r = y * side + x;
+		w.println("link "+r+".0.1 "+(y * side + (x + 1) % side)+".1.1");
+		w.println("link "+r+".2.1 "+(((y + 1) % side) * side + x)+".3.1");
+	    }
+	}
+	w.close();
+	return f;
+    }
+
+    /**
+     * main function called from the command line with optional arguments
+     * for the grid side, the number of warm up steps, the number of
+     * measured steps and the table store.
+     * @param args
+     */
+    public static void main(String args[]) throws IOException
+    {
+	int side = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+	int warmup = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+	int steps = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+	String store = args.length > 3 ? args[3] : "heap";
+
+	PrintStream stdout = System.out;
+	System.setOut(new PrintStream(new OutputStream() {
+		public void write(int b) { }
+		public void write(byte[] b, int off, int len) { }
+	    }));
+	Simulator sim = new Simulator(grid(side, store).getPath());
+	com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+	long tid = Thread.currentThread().getId();
+
+	int now = 1;
+	for (; now <= warmup; now++) {
+	    sim.tick(now);
+	}
+	long bytes = mx.getThreadAllocatedBytes(tid);
+	long start = System.nanoTime();
+	for (; now <= warmup + steps; now++) {
+	    sim.tick(now);
+	}
+	long ns = System.nanoTime() - start;
+	bytes = mx.getThreadAllocatedBytes(tid) - bytes;
+	System.setOut(stdout);
+	System.out.println(side * side + " routers, " + steps + " steps, " + store + " store");
+	System.out.println("time per step  " + (ns / steps / 1000) + " us");
+	System.out.println("bytes per step " + (bytes / steps));
+    }
+}
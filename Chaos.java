@@ -0,0 +1,329 @@
+import java.util.Random;
+import java.util.Vector;
+
+/**
+ * The <code>Chaos</code> class injects random link failures, a seeded
+ * alternative to writing <code>downlink</code> and <code>uplink</code>
+ * events by hand. The config line is
+ * <pre>
+ * chaos &lt;start&gt; &lt;stop&gt; &lt;rate&gt; &lt;downtime&gt; [fraction &lt;f&gt;] [routers &lt;id,id,...&gt;] [domain link|router] [seed &lt;n&gt;]
+ * </pre>
+ * Between start and stop, exclusive, faults start at a Poisson rate of
+ * <code>rate</code> a time step, each taking down a random link of the
+ * affected set for a geometric number of time steps with mean
+ * <code>downtime</code>. The affected set is every link, a random
+ * fraction of them, or the links of the routers listed. With
+ * <code>domain router</code> a fault takes down every affected link of
+ * one end of the chosen link together, as a router or line card failure.
+ * <p>
+ * Each fault is reported when it is over, as
+ * <pre>
+ * Chaos fault &lt;n&gt; : &lt;k&gt; links down &lt;t0&gt; up &lt;t1&gt;, converged in &lt;c&gt;, &lt;d&gt; drops, reconverged in &lt;r&gt;, &lt;e&gt; drops
+ * </pre>
+ * where convergence is the number of time steps from the fault, or from
+ * the repair, up to and including the last route change before the next
+ * chaos event, 0 if no route changed, and drops are the packets the
+ * routers and links dropped meanwhile, routing packets dropped by
+ * bounded link queues included. When faults overlap these windows
+ * are shared. A summary line with the totals over the repaired faults
+ * is printed when the simulation ends.
+ */
+public class Chaos implements RouteListener
+{
+    private int start;
+    private int stop;
+    private double rate;
+    private double downtime;
+    private double fraction = 1.0;
+    private int[] only;
+    private boolean domain = false;
+    private Random rng;
+
+    private Link[] all;
+    private Router[] routers;
+    // The affected links, as positions in all, and whether each link is
+    // down because of a fault.
+    private int[] affected;
+    private boolean[] faulted;
+    private Vector<Fault> down = new Vector<Fault>();
+    private Vector<Fault> recovering = new Vector<Fault>();
+    private int lastChange = -1;
+
+    private int faults = 0;
+    private int repaired = 0;
+    private long linkDowns = 0;
+    private long totalConvergence = 0;
+    private int maxConvergence = 0;
+    private long totalDrops = 0;
+
+    /**
+     * <code>Chaos</code> constructor.
+     * @param t0 first time step a fault may start on
+     * @param t1 time step faults stop starting at, exclusive
+     * @param r mean faults started per time step
+     * @param d mean time steps a fault lasts, at least 1
+     */
+    public Chaos(int t0, int t1, double r, double d)
+    {
+	start = t0;
+	stop = t1;
+	rate = r;
+	downtime = Math.max(1.0, d);
+	rng = new Random(0);
+    }
+
+    /**
+     * Seeds the random choices, 0 unless set.
+     * @param seed random seed
+     */
+    public void setSeed(long seed)
+    {
+	rng = new Random(seed);
+    }
+
+    /**
+     * Limits the faults to a random fraction of the links.
+     * @param f fraction of links, 0 to 1
+     */
+    public void setFraction(double f)
+    {
+	fraction = f;
+    }
+
+    /**
+     * Limits the faults to the links of the routers listed.
+     * @param ids router ids
+     */
+    public void setRouters(int[] ids)
+    {
+	only = ids;
+    }
+
+    /**
+     * Makes each fault take down every affected link of one end of the
+     * link chosen, rather than that link alone.
+     * @param d whether faults fail a router's links together
+     */
+    public void setDomain(boolean d)
+    {
+	domain = d;
+    }
+
+    /**
+     * Chooses the affected links and starts following route changes.
+     * @param r the routers whose drops are counted
+     * @param l every link, in config order
+     */
+    public void open(Router[] r, Link[] l)
+    {
+	routers = r;
+	all = l;
+	faulted = new boolean[l.length];
+	Vector<Integer> v = new Vector<Integer>();
+	for (int i = 0; i < l.length; i++) {
+	    // Draw for every link so the set does not depend on the others.
+	    boolean in = rng.nextDouble() < fraction;
+	    if (only != null && !attached(l[i])) in = false;
+	    if (in) v.addElement(i);
+	}
+	affected = new int[v.size()];
+	for (int i = 0; i < affected.length; i++) affected[i] = v.elementAt(i);
+	RouteChange.addListener(this);
+    }
+
+    private boolean attached(Link l)
+    {
+	for (int id : only) {
+	    if (l.getRouter(0) == id || l.getRouter(1) == id) return true;
+	}
+	return false;
+    }
+
+    /**
+     * Notes the time of a route change.
+     * @param c the change
+     */
+    public void routeChanged(RouteChange c)
+    {
+	lastChange = Math.max(lastChange, c.getTime());
+    }
+
+    /**
+     * Repairs the faults that are over and starts new ones, called at
+     * time step now before the routers run.
+     * @param now current time
+     * @return whether any link changed state
+     */
+    public boolean run(int now)
+    {
+	boolean changed = false;
+	long d = 0;
+	for (int k = 0; k < down.size(); k++) {
+	    Fault f = down.elementAt(k);
+	    if (f.up > now) continue;
+	    if (!changed) d = settle();
+	    changed = true;
+	    down.removeElementAt(k--);
+	    for (int i : f.links) {
+		System.out.println("Chaos fault "+f.n+" up "+all[i]);
+		all[i].setState(true);
+		faulted[i] = false;
+	    }
+	    f.converged = convergence(f.down);
+	    f.drops = d - f.drops;
+	    f.mark = d;
+	    recovering.addElement(f);
+	}
+	if (now < start || now >= stop || affected.length == 0) return changed;
+	int n = poisson();
+	for (int j = 0; j < n; j++) {
+	    int i = affected[rng.nextInt(affected.length)];
+	    if (faulted[i] || !all[i].isUp()) continue;
+	    int[] links = domain ? domainOf(i) : new int[] { i };
+	    if (!changed) d = settle();
+	    changed = true;
+	    Fault f = new Fault(++faults, now, now + length(), links);
+	    f.drops = d;
+	    for (int k : links) {
+		System.out.println("Chaos fault "+f.n+" down "+all[k]);
+		all[k].setState(false);
+		faulted[k] = true;
+		linkDowns++;
+	    }
+	    down.addElement(f);
+	}
+	return changed;
+    }
+
+    // Reports the repaired faults, whose window ends with this chaos
+    // event. Returns the drops so far.
+    private long settle()
+    {
+	long d = drops();
+	for (Fault f : recovering) {
+	    int r = convergence(f.up);
+	    long e = d - f.mark;
+	    System.out.println("Chaos fault "+f.n+" : "+f.links.length+" links down "+f.down+" up "+f.up
+			       +", converged in "+f.converged+", "+f.drops+" drops, reconverged in "+r+", "+e+" drops");
+	    totalConvergence += f.converged + r;
+	    maxConvergence = Math.max(maxConvergence, Math.max(f.converged, r));
+	    totalDrops += f.drops + e;
+	    repaired++;
+	}
+	recovering.clear();
+	return d;
+    }
+
+    /**
+     * Reports the faults still open and the totals, and stops following
+     * route changes.
+     */
+    public void close()
+    {
+	long d = settle();
+	for (Fault f : down) {
+	    System.out.println("Chaos fault "+f.n+" : "+f.links.length+" links down "+f.down
+			       +", not repaired, converged in "+convergence(f.down)+", "+(d - f.drops)+" drops");
+	}
+	System.out.println("Chaos : "+faults+" faults, "+repaired+" repaired, "+linkDowns+" link failures, mean convergence "
+			   +tenths(totalConvergence, 2L * repaired)
+			   +", max convergence "+maxConvergence+", "+totalDrops+" drops");
+	RouteChange.removeListener(this);
+    }
+
+    // n / d rounded to one decimal place, 0 if d is 0.
+    private static String tenths(long n, long d)
+    {
+	long t = (d == 0) ? 0 : (20 * n + d) / (2 * d);
+	return (t / 10)+"."+(t % 10);
+    }
+
+    // Time steps from t up to the last route change, 0 if none since t.
+    private int convergence(int t)
+    {
+	return (lastChange >= t) ? lastChange - t + 1 : 0;
+    }
+
+    // The affected up links sharing a random end of link i, i included.
+    private int[] domainOf(int i)
+    {
+	int r = all[i].getRouter(rng.nextInt(2));
+	Vector<Integer> v = new Vector<Integer>();
+	for (int k : affected) {
+	    if (faulted[k] || !all[k].isUp()) continue;
+	    if (all[k].getRouter(0) == r || all[k].getRouter(1) == r) v.addElement(k);
+	}
+	int[] links = new int[v.size()];
+	for (int k = 0; k < links.length; k++) links[k] = v.elementAt(k);
+	return links;
+    }
+
+    // Packets dropped so far by the routers and the link queues, data
+    // and routing alike.
+    private long drops()
+    {
+	long n = 0;
+	for (Router r : routers) n += r.getPacketCounts()[2];
+	for (Link l : all) n += l.getCounters(0)[2] + l.getCounters(1)[2];
+	return n;
+    }
+
+    // Geometric number of time steps, at least 1, with mean downtime.
+    private int length()
+    {
+	if (downtime <= 1.0) return 1;
+	double u = 1.0 - rng.nextDouble();
+	return 1 + (int)(Math.log(u) / Math.log(1.0 - 1.0 / downtime));
+    }
+
+    // Knuth's method, as for Poisson flows.
+    private int poisson()
+    {
+	int n = 0;
+	double left = rate;
+	while (left > 0) {
+	    double step = Math.min(left, 30.0);
+	    double l = Math.exp(-step);
+	    double p = rng.nextDouble();
+	    while (p > l) {
+		n++;
+		p = p * rng.nextDouble();
+	    }
+	    left = left - step;
+	}
+	return n;
+    }
+
+    /**
+     * Generic toString method
+     * @return String
+     */
+    public String toString()
+    {
+	return "Chaos from "+start+" to "+stop+" rate "+rate+" downtime "+downtime
+	    +(fraction < 1.0 ? " fraction "+fraction : "")+(domain ? " domain router" : "");
+    }
+
+    /**
+     * One fault : its links, when it started and ends, and the drop
+     * counts and convergence measured so far.
+     */
+    private static class Fault
+    {
+	int n;
+	int down;
+	int up;
+	int[] links;
+	int converged;
+	long drops;
+	long mark;
+
+	Fault(int k, int t0, int t1, int[] l)
+	{
+	    n = k;
+	    down = t0;
+	    up = t1;
+	    links = l;
+	}
+    }
+}
@@ -1,6 +1,9 @@
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.StringTokenizer;
 import java.util.Vector;
 /**
  * The <code>Config</code> class reads the configuration file
@@ -17,10 +20,28 @@ public class Config
     private Vector<Router> routers = new Vector<Router>();
     private Vector<Event> events = new Vector<Event>();
     private Vector<Link> links = new Vector<Link>();
-    
-    private int updateInterval = 1;
-    private boolean preverse = false;
-    private boolean expire = false;
+    private Vector<Flow> flows = new Vector<Flow>();
+    private AddressTable addresses = new AddressTable();
+
+    // Lines setting up the whole run rather than the topology or events.
+    private static String[] OPTIONS = { "area", "store", "sample", "traceRoutes", "jmx",
+					"metrics", "stop", "flow", "chaos" };
+
+    // Settings for the routers that follow, also read by the compiler
+    // of a precompiled topology.
+    int updateInterval = 1;
+    boolean preverse = false;
+    boolean expire = false;
+    int jitter = -1;
+    long jitterSeed = 0;
+    int adaptive = -1;
+
+    // Streaming mode, events are read from eventInput as the
+    // simulation clock reaches them rather than all up front.
+    private boolean stream = false;
+    private BufferedReader eventInput;
+    private Event pending;
+    private int lastTime = Integer.MIN_VALUE;
     
     /**
      * <code>Config</code> constructor which loads the configuration
@@ -29,22 +50,188 @@ public class Config
      * @param Simulator s, reference to the simulator object
      */
     Config (String filename, Simulator s) {
+	this(filename, s, false);
+    }
+
+    /**
+     * <code>Config</code> constructor which loads the configuration
+     * file and configures the simulator. In streaming mode only the
+     * topology and options are loaded here, the events are read later
+     * through <code>nextEvent</code> and must be sorted by time, a line
+     * out of order stops the run.
+     * @param String filename of the configuration file
+     * @param Simulator s, reference to the simulator object
+     * @param boolean st, whether to stream the events
+     */
+    Config (String filename, Simulator s, boolean st) {
 	sim = s;
+	stream = st;
 	System.out.println("Reading file "+filename);
 	try {
 	    input = new BufferedReader(new FileReader(filename));
 	
 	    String str;
 	    while ((str = input.readLine()) != null) {
-		process(str);
+		if (!stream || !isEvent(str)) {
+		    process(str);
+		}
+		else if (str.startsWith("checkRoutes")) {
+		    // The oracle follows route changes from the start.
+		    sim.enable_oracle();
+		}
 	    }
 	
         input.close();
 	}catch (IOException e) {
 	}
-	sim.add_routers(routers);
+	configure();
+	if (stream) {
+	    try {
+		eventInput = Files.newBufferedReader(Paths.get(filename));
+		sim.set_event_source(this);
+	    }catch (IOException e) {
+		System.out.println("Cannot stream events from "+filename);
+		System.exit(1);
+	    }
+	}
+    }
+
+    /**
+     * <code>Config</code> constructor for configuring the simulator
+     * through calls rather than lines of text, as
+     * <code>SimulatorBuilder</code> does. Nothing reaches the simulator
+     * until <code>configure</code>.
+     * @param Simulator s, reference to the simulator object
+     */
+    Config (Simulator s) {
+	sim = s;
+    }
+
+    /**
+     * <code>Config</code> constructor which applies the option lines
+     * kept in a precompiled topology, see <code>Topology</code>. Its
+     * routers, links and events are already in the simulator.
+     * @param lines option lines, in file order
+     * @param Simulator s, reference to the simulator object
+     * @param a the address table of the loaded routers
+     */
+    Config (Iterable<String> lines, Simulator s, AddressTable a) {
+	sim = s;
+	addresses = a;
+	for (String str : lines) {
+	    process(str);
+	}
+	sim.add_flows(flows);
+    }
+
+    /**
+     * Hands the routers, links, events and flows read so far to the
+     * simulator.
+     */
+    void configure() {
+	sim.add_routers(routers, addresses);
 	sim.add_links(links);
 	sim.add_events(events);
+	sim.add_flows(flows);
+    }
+
+    /**
+     * Returns the next streamed event if it is scheduled at or before
+     * the time <code>now</code>, otherwise null.
+     * @param now current time
+     * @return the next event or null
+     */
+    public Event nextEvent(int now)
+    {
+	String str;
+	try {
+	    while (pending == null && eventInput != null) {
+		if ((str = eventInput.readLine()) == null) {
+		    eventInput.close();
+		    eventInput = null;
+		}
+		else if (isEvent(str)) {
+		    process(str);
+		    if (pending != null) {
+			// A late line would hold back every event after it.
+			if (pending.getTime() < lastTime) {
+			    System.out.println("Streamed events should be in time order, "+lastTime+" before : "+str);
+			    System.exit(1);
+			}
+			lastTime = pending.getTime();
+		    }
+		}
+	    }
+	}catch (IOException e) {
+	    System.out.println("Error reading events : "+e);
+	    eventInput = null;
+	}
+	if (pending != null && pending.getTime() <= now) {
+	    Event e = pending;
+	    pending = null;
+	    return e;
+	}
+	return null;
+    }
+
+    /**
+     * Returns the number of streamed events that have not been run,
+     * reading the rest of the file to count them.
+     * @return number of events left
+     */
+    public int remainingEvents()
+    {
+	int count = 0;
+	String str;
+	if (pending != null) {
+	    pending = null;
+	    count++;
+	}
+	try {
+	    while (eventInput != null && (str = eventInput.readLine()) != null) {
+		if (isEvent(str)) {
+		    count++;
+		}
+	    }
+	    if (eventInput != null) {
+		eventInput.close();
+		eventInput = null;
+	    }
+	}catch (IOException e) {
+	}
+	return count;
+    }
+
+    /**
+     * Checks whether a line of config describes a timed event.
+     * @param String line of config from the config file
+     * @return whether the line is an event
+     */
+    private boolean isEvent(String s) {
+	int end = 0;
+	while (end < s.length() && !Character.isWhitespace(s.charAt(end))) end++;
+	String op = s.substring(0, end);
+	return op.equals("send") || op.equals("uplink") || op.equals("downlink")
+	    || op.equals("dumprt") || op.equals("dumpPacketStats")
+	    || op.equals("dumpMetrics") || op.equals("checkRoutes");
+    }
+
+    /**
+     * Queues an event, or hands it to <code>nextEvent</code> in
+     * streaming mode.
+     * @param e the event
+     */
+    void addEvent(Event e) {
+	if (e.getOperation().equals("checkRoutes")) {
+	    // The oracle follows route changes from the start.
+	    sim.enable_oracle();
+	}
+	if (stream) {
+	    pending = e;
+	}
+	else {
+	    events.addElement(e);
+	}
     }
 
     /**
@@ -52,25 +239,23 @@ public class Config
      * appropriate objects
      * @param String line of config from the config file
      */
-    private void process(String s) {
-	String[] result = s.split("\\s");
+    void process(String s) {
+	String[] result = tokens(s);
 	
-	if (result.length == 1) return;
+	if (result.length <= 1) return;
 	
 
-	if (result[0].equals("router")) {
-	    Router r = new Router(Integer.parseInt(result[1]),Integer.parseInt(result[2]),
-                              result[3], updateInterval, preverse, expire);
-        routers.addElement(r);
+	if (isOption(result[0])) {
+	    option(result, s);
+	}
+	else if (result[0].equals("router")) {
+	    addRouter(Integer.parseInt(result[1]),Integer.parseInt(result[2]),result[3]);
 	}
 	else if (result[0].equals("link")) {
-	    Link l = new Link(Integer.parseInt(result[1].split("\\.")[0]),
-			      Integer.parseInt(result[1].split("\\.")[1]),
-			      Integer.parseInt(result[1].split("\\.")[2]),
-			      Integer.parseInt(result[2].split("\\.")[0]),
-			      Integer.parseInt(result[2].split("\\.")[1]),
-			      Integer.parseInt(result[2].split("\\.")[2]));
-	    if (result.length == 4) {
+	    int[] e0 = address(result[1], 3, s);
+	    int[] e1 = address(result[2], 3, s);
+	    Link l = new Link(e0[0], e0[1], e0[2], e1[0], e1[1], e1[2]);
+	    if (result.length >= 4) {
 		if (result[3].equals("up") ) {
 		    l.setState(true);
 		}
@@ -78,11 +263,36 @@ public class Config
 		    l.setState(false);
 		}
 		else {
-		    System.out.println("Unknown link state "+result[4]);
+		    System.out.println("Unknown link state "+result[3]);
 		}
 
 	    }
-	    links.addElement(l);
+	    // Optional queue settings : cap <packets> rate <packets/tick> drop <tail|red>
+	    for (int i = 4; i + 1 < result.length; i += 2) {
+		if (result[i].equals("cap")) {
+		    l.setCapacity(Integer.parseInt(result[i+1]));
+		}
+		else if (result[i].equals("rate")) {
+		    l.setRate(Integer.parseInt(result[i+1]));
+		}
+		else if (result[i].equals("drop")) {
+		    if (result[i+1].equals("tail")) {
+			l.setDropPolicy(Link.TAILDROP);
+		    }
+		    else if (result[i+1].equals("red")) {
+			l.setDropPolicy(Link.RED);
+		    }
+		    else {
+			System.out.println("drop should be either tail or red, not " + result[i+1]);
+			System.exit(1);
+		    }
+		}
+		else {
+		    System.out.println("Unknown link option "+result[i]);
+		    System.exit(1);
+		}
+	    }
+	    addLink(l);
 	}
 	else if (result[0].equals("send") ) {
 	    int arg_len = result.length - 2;
@@ -91,66 +301,59 @@ public class Config
 		args[i] = result[i+2];
 	    }
 	    Event e = new Event(result[0],Integer.parseInt(result[1]),args);
-	    events.addElement(e);
+	    addEvent(e);
 	}
 	else if (result[0].equals("uplink") || result[0].equals("downlink")) {
-	    int arg_len = result.length;
-	    String[] args = new String[arg_len];
-	    args[0] = result[2].split("\\.")[0];
-	    args[1] = result[2].split("\\.")[1];
-	    args[2] = result[3].split("\\.")[0];
-	    args[3] = result[3].split("\\.")[1];
+	    int[] e0 = address(result[2], 2, s);
+	    int[] e1 = address(result[3], 2, s);
+	    String[] args = { ""+e0[0], ""+e0[1], ""+e1[0], ""+e1[1] };
 	    Event e = new Event(result[0],Integer.parseInt(result[1]),args);
-	    events.addElement(e);
-	}
-	else if (result[0].equals("stop")) {
-	    sim.set_stop_time(Integer.parseInt(result[1]));
+	    addEvent(e);
 	}
     else if (result[0].equals("updateInt")){
-        //Sanity check the update interval 
-        int u = Integer.parseInt(result[1]);
-        updateInterval = u;
-        if(u <= 0){
-            System.out.println("Update interval should be a positive integer");
-            System.exit(1);
-        }
+        setUpdateInterval(Integer.parseInt(result[1]));
     }
+	else if (result[0].equals("jitter")) {
+	    // jitter <max> [seed], random update phases and jitter for the routers that follow.
+	    setJitter(Integer.parseInt(result[1]), (result.length >= 3) ? Long.parseLong(result[2]) : 0);
+	}
+	else if (result[0].equals("adaptive")) {
+	    // adaptive <max>|off, back off the updates of the routers that follow while their tables are stable.
+	    setAdaptive(result[1].equals("off") ? -1 : Integer.parseInt(result[1]));
+	}
     else if (result[0].equals("preverse")){
-        if(result[1].equals("on")){
-            System.out.println("Preverse on");
-            preverse = true;
-        }
-        else if (result[1].equals("off")){
-            preverse = false;
-        }
-        else {
-            System.out.println("preverse should be either off or on, not " + result[1]);
-            System.exit(1);
-        }
+        setPreverse(onOff(result));
     }
     else if (result[0].equals("expire")){
-        if(result[1].equals("on")){
-            expire = true;
-        }
-        else if (result[1].equals("off")){
-            expire = false;
-        }
-        else {
-            System.out.println("expire should be either off or on, not " + result[1]);
-            System.exit(1);
-        }
+        setExpire(onOff(result));
     }
 	else if (result[0].equals("dumprt")) {
-	    String[] args = new String[1];
-	    args[0] = result[2];
+	    // dumprt <time> <router|all> [binary <file>|diff]
+	    String[] args = new String[result.length - 2];
+	    for (int i=0; i< args.length; i++) {
+		args[i] = result[i+2];
+	    }
+	    if (args.length > 1 && !(args[1].equals("diff") || (args[1].equals("binary") && args.length == 3))) {
+		System.out.println("dumprt should end with either diff or binary <file> : "+s);
+		System.exit(1);
+	    }
 	    Event e = new Event(result[0],Integer.parseInt(result[1]),args);
-	    events.addElement(e);
+	    addEvent(e);
 	}
 	else if (result[0].equals("dumpPacketStats")) {
 	    String[] args = new String[1];
 	    args[0] = result[2];
 	    Event e = new Event(result[0],Integer.parseInt(result[1]),args);
-	    events.addElement(e);
+	    addEvent(e);
+	}
+	else if (result[0].equals("dumpMetrics")) {
+	    Event e = new Event(result[0],Integer.parseInt(result[1]),new String[0]);
+	    addEvent(e);
+	}
+	else if (result[0].equals("checkRoutes")) {
+	    // checkRoutes <time>, compares the tables with shortest paths.
+	    Event e = new Event(result[0],Integer.parseInt(result[1]),new String[0]);
+	    addEvent(e);
 	}
 	else if (result[0].startsWith("#")) {
 	    // skipping comments
@@ -160,4 +363,338 @@ public class Config
 	    System.exit(1);
 	}
     }
+
+    /**
+     * Is a line an option, a setting of the whole run rather than part
+     * of the topology or an event. A precompiled topology keeps these as
+     * text.
+     * @param op the first word of the line
+     * @return whether the line is an option
+     */
+    static boolean isOption(String op) {
+	for (String o : OPTIONS) {
+	    if (o.equals(op)) return true;
+	}
+	return false;
+    }
+
+    /**
+     * Applies an option line.
+     * @param result the words of the line
+     * @param s the line, for error messages
+     */
+    void option(String[] result, String s) {
+	if (result[0].equals("flow")) {
+	    // flow <start> <stop> <src> <dst> <cbr|poisson> <rate>
+	    int kind;
+	    if (result[5].equals("cbr")) {
+		kind = Flow.CBR;
+	    }
+	    else if (result[5].equals("poisson")) {
+		kind = Flow.POISSON;
+	    }
+	    else {
+		System.out.println("flow should be either cbr or poisson, not " + result[5]);
+		System.exit(1);
+		return;
+	    }
+	    Flow f = new Flow(Integer.parseInt(result[3]),Integer.parseInt(result[4]),
+			      Integer.parseInt(result[1]),Integer.parseInt(result[2]),
+			      kind, Double.parseDouble(result[6]));
+	    addFlow(f);
+	}
+	else if (result[0].equals("area")) {
+	    // area <router> <area id>, the router must already be defined.
+	    setArea(Integer.parseInt(result[1]),Integer.parseInt(result[2]));
+	}
+	else if (result[0].equals("store")) {
+	    // store heap|direct|mapped <file>|atomic, where DV keeps its tables.
+	    try {
+		if (result[1].equals("heap")) {
+		    RouteStore.configure(RouteStore.HEAP, null);
+		}
+		else if (result[1].equals("direct")) {
+		    RouteStore.configure(RouteStore.DIRECT, null);
+		}
+		else if (result[1].equals("mapped") && result.length == 3) {
+		    RouteStore.configure(RouteStore.MAPPED, result[2]);
+		}
+		else if (result[1].equals("atomic")) {
+		    RouteStore.configure(RouteStore.ATOMIC, null);
+		}
+		else {
+		    System.out.println("store should be heap, direct, mapped <file> or atomic, not " + result[1]);
+		    System.exit(1);
+		}
+	    } catch (IOException e) {
+		System.out.println("Cannot open store "+result[2]+" : "+e);
+		System.exit(1);
+	    }
+	}
+	else if (result[0].equals("sample")) {
+	    // sample <every> <file> [tables] [queues] [counters] [infinity]
+	    int g = 0;
+	    for (int k = 3; k < result.length; k++) {
+		if (result[k].equals("tables")) g |= Sampler.TABLES;
+		else if (result[k].equals("queues")) g |= Sampler.QUEUES;
+		else if (result[k].equals("counters")) g |= Sampler.COUNTERS;
+		else if (result[k].equals("infinity")) g |= Sampler.INFINITY;
+		else {
+		    System.out.println("sample can record tables, queues, counters or infinity, not " + result[k]);
+		    System.exit(1);
+		}
+	    }
+	    if (g == 0) g = Sampler.TABLES | Sampler.QUEUES | Sampler.COUNTERS | Sampler.INFINITY;
+	    int every = (result.length >= 3) ? Integer.parseInt(result[1]) : 0;
+	    if (every <= 0) {
+		System.out.println("sample needs a positive interval and a file : "+s);
+		System.exit(1);
+	    }
+	    sim.set_sampler(new Sampler(every, result[2], g));
+	}
+	else if (result[0].equals("chaos")) {
+	    // chaos <start> <stop> <rate> <downtime> [fraction <f>] [routers <id,id,...>] [domain link|router] [seed <n>]
+	    if (result.length < 5 || result.length % 2 == 0) {
+		System.out.println("chaos needs a start, stop, rate and downtime, then option value pairs : "+s);
+		System.exit(1);
+	    }
+	    Chaos c = new Chaos(Integer.parseInt(result[1]),Integer.parseInt(result[2]),
+				Double.parseDouble(result[3]),Double.parseDouble(result[4]));
+	    for (int i = 5; i + 1 < result.length; i += 2) {
+		if (result[i].equals("fraction")) {
+		    c.setFraction(Double.parseDouble(result[i+1]));
+		}
+		else if (result[i].equals("routers")) {
+		    String[] ids = result[i+1].split(",");
+		    int[] r = new int[ids.length];
+		    for (int k = 0; k < ids.length; k++) {
+			r[k] = Integer.parseInt(ids[k]);
+		    }
+		    c.setRouters(r);
+		}
+		else if (result[i].equals("domain") && (result[i+1].equals("link") || result[i+1].equals("router"))) {
+		    c.setDomain(result[i+1].equals("router"));
+		}
+		else if (result[i].equals("seed")) {
+		    c.setSeed(Long.parseLong(result[i+1]));
+		}
+		else {
+		    System.out.println("Unknown chaos option "+result[i]+" "+result[i+1]);
+		    System.exit(1);
+		}
+	    }
+	    sim.add_chaos(c);
+	}
+	else if (result[0].equals("traceRoutes")) {
+	    // traceRoutes on prints every routing table change as it happens.
+	    if (result[1].equals("on")) {
+		sim.add_listener(new RouteListener() {
+			public void routeChanged(RouteChange c) {
+			    System.out.println(c);
+			}
+		    });
+	    }
+	    else if (!result[1].equals("off")) {
+		System.out.println("traceRoutes should be either on or off, not " + result[1]);
+		System.exit(1);
+	    }
+	}
+	else if (result[0].equals("jmx")) {
+	    // jmx on publishes the run as MBeans for a JMX client.
+	    if (result[1].equals("on")) {
+		sim.set_monitor(true);
+	    }
+	    else if (result[1].equals("off")) {
+		sim.set_monitor(false);
+	    }
+	    else {
+		System.out.println("jmx should be either on or off, not " + result[1]);
+		System.exit(1);
+	    }
+	}
+    else if (result[0].equals("metrics")){
+        if(result[1].equals("on")){
+            Metrics.on = true;
+        }
+        else if (result[1].equals("tick")){
+            Metrics.on = true;
+            Metrics.perTick = true;
+        }
+        else if (result[1].equals("off")){
+            Metrics.on = false;
+        }
+        else {
+            System.out.println("metrics should be either off, on or tick, not " + result[1]);
+            System.exit(1);
+        }
+    }
+	else if (result[0].equals("stop")) {
+	    sim.set_stop_time(Integer.parseInt(result[1]));
+	}
+    }
+
+    // Reads on or off for a setting such as preverse.
+    private static boolean onOff(String[] result) {
+	if (result[1].equals("on")) return true;
+	if (!result[1].equals("off")) {
+	    System.out.println(result[0]+" should be either off or on, not " + result[1]);
+	    System.exit(1);
+	}
+	return false;
+    }
+
+    /**
+     * Splits a line of config on white space.
+     * @param s the line
+     * @return the words of the line
+     */
+    static String[] tokens(String s) {
+	StringTokenizer t = new StringTokenizer(s);
+	String[] v = new String[t.countTokens()];
+	for (int i = 0; i < v.length; i++) v[i] = t.nextToken();
+	return v;
+    }
+
+    /**
+     * Splits a dotted address such as router.interface.weight.
+     * @param a the address
+     * @param n the number of fields it should have
+     * @param line the line it is on, for the error message
+     * @return the fields
+     */
+    static int[] address(String a, int n, String line) {
+	StringTokenizer t = new StringTokenizer(a, ".");
+	if (t.countTokens() != n) {
+	    System.out.println("Something is wrong with this line : "+line);
+	    System.exit(1);
+	}
+	int[] v = new int[n];
+	for (int i = 0; i < n; i++) v[i] = Integer.parseInt(t.nextToken());
+	return v;
+    }
+
+    /**
+     * Sets the update interval of the routers that follow.
+     * @param u update interval, positive
+     */
+    void setUpdateInterval(int u) {
+        //Sanity check the update interval 
+        updateInterval = u;
+        if(u <= 0){
+            System.out.println("Update interval should be a positive integer");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Turns poisoned reverse on or off for the routers that follow.
+     * @param on whether to poison reverse routes
+     */
+    void setPreverse(boolean on) {
+	if (on) System.out.println("Preverse on");
+	preverse = on;
+    }
+
+    /**
+     * Turns route expiry on or off for the routers that follow.
+     * @param on whether routes expire
+     */
+    void setExpire(boolean on) {
+	expire = on;
+    }
+
+    /**
+     * Jitters the updates of the routers that follow.
+     * @param max largest jitter, below the update interval
+     * @param seed random seed
+     */
+    void setJitter(int max, long seed) {
+	jitter = max;
+	jitterSeed = seed;
+	if (jitter < 0) {
+	    System.out.println("Update jitter should be a non-negative integer");
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Backs off the updates of the routers that follow while their
+     * tables are stable.
+     * @param max longest interval between updates, -1 for off
+     */
+    void setAdaptive(int max) {
+	adaptive = max;
+	if (adaptive == 0 || adaptive < -1) {
+	    System.out.println("Adaptive update interval should be a positive integer or off");
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Adds a router with the settings in force.
+     * @param id router id, unique and non-negative
+     * @param n number of interfaces
+     * @param alg routing algorithm class
+     */
+    void addRouter(int id, int n, String alg) {
+	checkRouter(id);
+	Router r = new Router(id, n, alg, updateInterval, preverse, expire, addresses);
+	if (jitter >= 0) {
+	    r.setUpdateJitter(jitter, jitterSeed);
+	}
+	if (adaptive >= 0) {
+	    r.setAdaptiveUpdates(adaptive);
+	}
+	routers.addElement(r);
+    }
+
+    /**
+     * Checks a new router's id and the settings in force for it, and
+     * adds the id to the address table.
+     * @param id router id, unique and non-negative
+     */
+    void checkRouter(int id) {
+	if (addresses.add(id) < 0) {
+	    System.out.println("Router id should be a unique non-negative integer, not " + id);
+	    System.exit(1);
+	}
+	if (jitter >= 0 && jitter >= updateInterval) {
+	    System.out.println("Update jitter should be smaller than the update interval");
+	    System.exit(1);
+	}
+	if (adaptive >= 0 && adaptive < updateInterval) {
+	    System.out.println("Adaptive update interval should be at least the update interval");
+	    System.exit(1);
+	}
+    }
+
+    /**
+     * Adds a link.
+     * @param l the link
+     */
+    void addLink(Link l) {
+	links.addElement(l);
+    }
+
+    /**
+     * Adds a traffic flow.
+     * @param f the flow
+     */
+    void addFlow(Flow f) {
+	flows.addElement(f);
+    }
+
+    /**
+     * Puts a router in an area, the router must already be added.
+     * @param id router id
+     * @param a area id, non-negative
+     */
+    void setArea(int id, int a) {
+	int i = addresses.indexOf(id);
+	if (i < 0 || a < 0) {
+	    System.out.println("area needs a defined router and a non-negative area id : "+id+" "+a);
+	    System.exit(1);
+	}
+	addresses.setArea(i, a);
+    }
 }
@@ -1,7 +1,4 @@
 import java.lang.Math;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
 
 public class DV implements RoutingAlgorithm {
 
@@ -13,19 +10,39 @@ public class DV implements RoutingAlgorithm {
     static int TIMEOUT = 6;
     static int TTL_TIMER = 4;
 
+    // What tidying does to a route, see expiry. HDV shares these rules.
+    static int KEEP = 0;
+    static int POISON = 1;
+    static int REMOVE = 2;
+
     // Keep the name of the current node, it may prove handy at a certain point.
     // I will remove it, if not.
     private int name;
+    private int index;
+    private AddressTable addresses;
 
     private int updateInterval;
     private boolean allowPReverse;
     private boolean allowExpire;
     private Router router;
 
-    // Use a HashMap for fast access to entries.
-    // The issue is that the destionation will be
-    // stored twice, but easy access turns the balance.
-    private HashMap<Integer, DVRoutingTableEntry> routingTable;
+    // The table is indexed by the destination's dense index, see
+    // RouteStore. Destinations inside routing packets are dense indexes
+    // too, router ids are only used for printing. The store is sized once
+    // every router is known, so it is allocated on first use.
+    // Volatile so that other threads reading routes see a grown table
+    // only once it has been filled.
+    private volatile RouteStore routingTable;
+
+    // Duplicate update suppression. version counts changes to the
+    // interface or metric of any route. For each interface we keep the
+    // digest of the last advertisement processed from it and the version
+    // right after processing it. Processing an advertisement twice gives
+    // the same routes, so if both still match only the timestamps that
+    // processing it would have refreshed need refreshing.
+    private long version = 0;
+    private long[] heardDigest;
+    private long[] heardVersion;
 
     public DV() {
     }
@@ -50,8 +67,24 @@ public class DV implements RoutingAlgorithm {
     // <code>setRouterObject</code> has been called.
     public void initalise() {
         this.name = this.router.getId();
-        this.routingTable = new HashMap<>();
-        this.routingTable.put(this.name, new DVRoutingTableEntry(name, LOCAL, 0, INFINITY));
+        this.index = this.router.getIndex();
+        this.addresses = this.router.getAddressTable();
+    }
+
+    // Gets the table, allocating it, or growing it if routers were
+    // added since, with our own entry in place.
+    private RouteStore table() {
+        if (this.routingTable == null || this.routingTable.capacity() < this.addresses.size()) {
+            RouteStore t = RouteStore.allocate(Math.max(this.addresses.size(), this.index + 1));
+            if (this.routingTable == null) {
+                t.set(this.index, LOCAL, 0, INFINITY);
+                this.version++;
+                if (RouteChange.on) changed(this.index, UNKNOWN, LOCAL, INFINITY, 0);
+            }
+            else this.routingTable.copyTo(t);
+            this.routingTable = t;
+        }
+        return this.routingTable;
     }
 
     // Given a destination address, returns
@@ -59,53 +92,93 @@ public class DV implements RoutingAlgorithm {
     // -1 is returned for a local address,
     // -2 is an unknown address.
     public int getNextHop(int destination) {
-        DVRoutingTableEntry destinationEntry = this.routingTable.get(destination);
-        if (destinationEntry == null) return UNKNOWN;
-        if (destinationEntry.getMetric() == INFINITY) return UNKNOWN;
-        return destinationEntry.getInterface();
+        RouteStore t = this.table();
+        int d = this.addresses.indexOf(destination);
+        if (d < 0 || d >= t.capacity()) return UNKNOWN;
+        if (!t.has(d)) return UNKNOWN;
+        if (t.getMetric(d) == INFINITY) return UNKNOWN;
+        return t.getInterface(d);
+    }
+
+    public int getMetric(int destination) {
+        RouteStore t = this.table();
+        int d = this.addresses.indexOf(destination);
+        if (d < 0 || d >= t.capacity() || !t.has(d)) return -1;
+        return t.getMetric(d);
+    }
+
+    // Counts the changes to the interface or metric of any route.
+    public long getVersion() {
+        return this.version;
+    }
+
+    // Reads the table as it is, never allocating it, so it may be called
+    // from other threads while the router runs.
+    public long getRoute(int destination) {
+        RouteStore t = this.routingTable;
+        int d = this.addresses.indexOf(destination);
+        if (t == null || d < 0 || d >= t.capacity()) return 0;
+        return t.getRoute(d);
     }
 
     // A periodic task to tidy up the routing
     // table. This method is called before
     // processing any new packets each round.
     public void tidyTable() {
+        RouteStore t = this.table();
 
         // Update links that have just been downed.
-        for (Map.Entry<Integer, DVRoutingTableEntry> dvEntry : this.routingTable.entrySet()) {
-            if (!this.router.getInterfaceState(dvEntry.getValue().getInterface()) && dvEntry.getValue().getMetric() != INFINITY) {
-                dvEntry.getValue().setMetric(INFINITY);
-                dvEntry.getValue().setTime(this.router.getCurrentTime());
+        for (int d = 0; d < t.capacity(); d++) {
+            if (!t.has(d)) continue;
+            if (downed(this.router, t.getInterface(d), t.getMetric(d))) {
+                if (RouteChange.on) changed(d, t.getInterface(d), t.getInterface(d), t.getMetric(d), INFINITY);
+                t.setMetric(d, INFINITY);
+                t.setTime(d, this.router.getCurrentTime());
+                this.version++;
             }
         }
 
         // Handle case when routing entries have a time to live bound to them.
         if (allowExpire) {
-            Iterator<DVRoutingTableEntry> it = this.routingTable.values().iterator();
-            while (it.hasNext()) {
-                DVRoutingTableEntry dvEntry = it.next();
-                if (dvEntry.getDestination() == this.router.getId()) continue;
-                if (dvEntry.getMetric() != INFINITY) {
-                    if (dvEntry.getTime() + TIMEOUT * updateInterval <= router.getCurrentTime()) {
-                        dvEntry.setMetric(INFINITY);
-                        dvEntry.setTime(router.getCurrentTime());
-                    }
-                } else if (dvEntry.getTime() + TTL_TIMER * updateInterval <= router.getCurrentTime()) {
-                    it.remove();
+            for (int d = 0; d < t.capacity(); d++) {
+                if (!t.has(d) || d == this.index) continue;
+                int action = expiry(t.getMetric(d), t.getTime(d), router.getCurrentTime(), updateInterval);
+                if (action == POISON) {
+                    if (RouteChange.on) changed(d, t.getInterface(d), t.getInterface(d), t.getMetric(d), INFINITY);
+                    t.setMetric(d, INFINITY);
+                    t.setTime(d, router.getCurrentTime());
+                    this.version++;
+                } else if (action == REMOVE) {
+                    if (RouteChange.on) changed(d, t.getInterface(d), UNKNOWN, INFINITY, INFINITY);
+                    t.remove(d);
+                    this.version++;
                 }
             }
         }
     }
 
+    // Is a route through iface still reachable at a finite metric, though
+    // the interface went down. Such routes go to INFINITY from now.
+    static boolean downed(Router r, int iface, int metric) {
+        return !r.getInterfaceState(iface) && metric != INFINITY;
+    }
+
+    // Expiry of a route last refreshed at time. A route that was not
+    // refreshed for TIMEOUT updates is POISONed, going to INFINITY from
+    // now, and one at INFINITY for TTL_TIMER updates is REMOVEd.
+    static int expiry(int metric, int time, int now, int updateInterval) {
+        if (metric != INFINITY) {
+            return (time + TIMEOUT * updateInterval <= now) ? POISON : KEEP;
+        }
+        return (time + TTL_TIMER * updateInterval <= now) ? REMOVE : KEEP;
+    }
+
     // Generates a routing packet from the routing table.
     public Packet generateRoutingPacket(int iface) {
 
         // If-statement handles makes the method generate a Packet
         // if-only enough time has passed since the last update.
-        if (this.router.getCurrentTime() % updateInterval == 0) {
-
-            Packet routingPacket = new Packet(this.name, Packet.BROADCAST);
-            routingPacket.setType(Packet.ROUTING);
-            Payload payload = new Payload();
+        if (this.router.isUpdateDue()) {
 
             // If link is down, don't do anything. Faster then
             // just checking in the routing table for INFINITY
@@ -115,20 +188,43 @@ public class DV implements RoutingAlgorithm {
                 return null;
             }
 
+            // Packets come from the router's pool, and a recycled one still
+            // holds the entries of an earlier update, which are overwritten.
+            Packet routingPacket = this.router.getPacketPool().get(this.name, Packet.BROADCAST);
+            Payload payload = routingPacket.getPayload();
+            int reusable = payload.size();
+            int n = 0;
+            long digest = 0;
+            RouteStore t = this.table();
+
             // Append DVEntry information that needs to be sent on
             // the link to the payload of the new routing Packet.
-            for (HashMap.Entry<Integer, DVRoutingTableEntry> pair : this.routingTable.entrySet()) {
-                DVRoutingTableEntry payloadEntry = new DVRoutingTableEntry(pair.getValue().getDestination(), pair.getValue().getInterface(), pair.getValue().getMetric(), pair.getValue().getTime());
+            for (int d = 0; d < t.capacity(); d++) {
+                if (!t.has(d)) continue;
+                Object old = n < reusable ? payload.getEntry(n) : null;
+                DVRoutingTableEntry payloadEntry;
+                if (old instanceof DVRoutingTableEntry) {
+                    payloadEntry = (DVRoutingTableEntry) old;
+                    payloadEntry.setDestination(d);
+                    payloadEntry.setInterface(t.getInterface(d));
+                    payloadEntry.setMetric(t.getMetric(d));
+                    payloadEntry.setTime(t.getTime(d));
+                } else {
+                    payloadEntry = new DVRoutingTableEntry(d, t.getInterface(d), t.getMetric(d), t.getTime(d));
+                    payload.setEntry(n, payloadEntry);
+                }
+                n++;
 
                 // PReverse technique requires us to send INFINITY metrics on ifaces
                 // that current router uses the same iface to get to other nodes.
                 if (this.allowPReverse) {
-                    if (pair.getValue().getInterface() == iface) payloadEntry.setMetric(INFINITY);
+                    if (t.getInterface(d) == iface) payloadEntry.setMetric(INFINITY);
                 }
-                payload.addEntry(payloadEntry);
+                digest = (digest ^ ((long) d << 32 | payloadEntry.getMetric())) * 0x9E3779B97F4A7C15L;
             }
+            payload.truncate(n);
+            payload.setDigest(digest == 0 ? 1 : digest);
 
-            routingPacket.setPayload(payload);
             return routingPacket;
         }
         // Return null if updateInterval condition is not fullfiled
@@ -137,29 +233,83 @@ public class DV implements RoutingAlgorithm {
 
     // Given a routing packet from another host process it and add it to the routing table.
     public void processRoutingPacket(Packet p, int iface) {
+        RouteStore t = this.table();
+        long digest = p.getPayload().getDigest();
+
+        if (this.heardDigest == null) {
+            this.heardDigest = new long[this.router.getNumInterfaces()];
+            this.heardVersion = new long[this.router.getNumInterfaces()];
+        }
+        if (digest != 0 && digest == this.heardDigest[iface] && this.version == this.heardVersion[iface]) {
+            if (allowExpire) refresh(t, p, iface);
+            return;
+        }
 
         for (Object o : p.getPayload().getData()) {
             DVRoutingTableEntry payloadEntry = (DVRoutingTableEntry) o;
+            int d = payloadEntry.getDestination();
 
             // Set this up before other conditionals to avoid complications.
             int metric = payloadEntry.getMetric() + router.getInterfaceWeight(iface) < INFINITY ? payloadEntry.getMetric() + router.getInterfaceWeight(iface) : INFINITY;
 
-            if (!this.routingTable.containsKey(payloadEntry.getDestination()) && metric != INFINITY)
-                this.routingTable.put(payloadEntry.getDestination(), new DVRoutingTableEntry(payloadEntry.getDestination(), iface, metric, router.getCurrentTime()));
-            else {
-                if (!this.routingTable.containsKey(payloadEntry.getDestination())) continue;
-                DVRoutingTableEntry dvEntry = this.routingTable.get(payloadEntry.getDestination());
-                if (dvEntry.getInterface() == iface) {
-                    if (!(dvEntry.getMetric() == INFINITY && metric == INFINITY))
-                        dvEntry.setTime(this.router.getCurrentTime());
-                    dvEntry.setMetric(metric);
-                } else if (metric < dvEntry.getMetric()) {
-                    dvEntry.setInterface(iface);
-                    dvEntry.setMetric(metric);
-                    dvEntry.setTime(this.router.getCurrentTime());
+            if (!t.has(d) && metric != INFINITY) {
+                t.set(d, iface, metric, router.getCurrentTime());
+                this.version++;
+                if (RouteChange.on) changed(d, UNKNOWN, iface, INFINITY, metric);
+            } else {
+                if (!t.has(d)) continue;
+                if (t.getInterface(d) == iface) {
+                    if (!(t.getMetric(d) == INFINITY && metric == INFINITY))
+                        t.setTime(d, this.router.getCurrentTime());
+                    if (t.getMetric(d) != metric) {
+                        if (RouteChange.on) changed(d, iface, iface, t.getMetric(d), metric);
+                        this.version++;
+                    }
+                    t.setMetric(d, metric);
+                } else if (metric < t.getMetric(d)) {
+                    if (RouteChange.on) changed(d, t.getInterface(d), iface, t.getMetric(d), metric);
+                    this.version++;
+                    t.setTime(d, this.router.getCurrentTime());
+                    t.setRoute(d, iface, metric);
                 }
             }
         }
+        this.heardDigest[iface] = digest;
+        this.heardVersion[iface] = this.version;
+    }
+
+    // Refreshes the timestamps that processing an unchanged advertisement
+    // again would, those of routes through iface that are not at INFINITY.
+    private void refresh(RouteStore t, Packet p, int iface) {
+        Payload payload = p.getPayload();
+        int n = payload.size();
+        for (int i = 0; i < n; i++) {
+            int d = ((DVRoutingTableEntry) payload.getEntry(i)).getDestination();
+            if (t.has(d) && t.getInterface(d) == iface && t.getMetric(d) != INFINITY)
+                t.setTime(d, this.router.getCurrentTime());
+        }
+    }
+
+    // Reports a change to the route to destination index d.
+    private void changed(int d, int oldIface, int newIface, int oldMetric, int newMetric) {
+        this.router.routeChanged(this.addresses.idOf(d), oldIface, newIface, oldMetric, newMetric);
+    }
+
+    public int[] getRoutes() {
+        RouteStore t = this.table();
+        int n = 0;
+        for (int d = 0; d < t.capacity(); d++) {
+            if (t.has(d)) n++;
+        }
+        int[] routes = new int[3 * n];
+        n = 0;
+        for (int d = 0; d < t.capacity(); d++) {
+            if (!t.has(d)) continue;
+            routes[n++] = this.addresses.idOf(d);
+            routes[n++] = t.getInterface(d);
+            routes[n++] = t.getMetric(d);
+        }
+        return routes;
     }
 
     /**
@@ -171,58 +321,12 @@ public class DV implements RoutingAlgorithm {
      * d <destination> i <interface> m <metric>
      */
     public void showRoutes() {
+        RouteStore t = this.table();
         System.out.println("Router " + this.name);
-        for (HashMap.Entry<Integer, DVRoutingTableEntry> mapEntry : this.routingTable.entrySet()) {
-            System.out.println(mapEntry.getValue().toString());
+        for (int d = 0; d < t.capacity(); d++) {
+            if (!t.has(d)) continue;
+            System.out.println("d " + this.addresses.idOf(d) + " i " + t.getInterface(d) + " m " + t.getMetric(d));
         }
     }
 
 }
-
-class DVRoutingTableEntry implements RoutingTableEntry {
-    private int destination, iface, metric, ttl;
-
-    DVRoutingTableEntry(int d, int i, int m, int t) {
-        this.destination = d;
-        this.iface = i;
-        this.metric = m;
-        this.ttl = t;
-    }
-
-    public int getDestination() {
-        return this.destination;
-    }
-
-    public void setDestination(int d) {
-        this.destination = d;
-    }
-
-    public int getInterface() {
-        return this.iface;
-    }
-
-    public void setInterface(int i) {
-        this.iface = i;
-    }
-
-    public int getMetric() {
-        return this.metric;
-    }
-
-    public void setMetric(int m) {
-        this.metric = m;
-    }
-
-    public int getTime() {
-        return this.ttl;
-    }
-
-    public void setTime(int t) {
-        this.ttl = t;
-    }
-
-    public String toString() {
-        return "d " + this.getDestination() + " i " + this.getInterface() + " m " + this.getMetric();
-    }
-}
-
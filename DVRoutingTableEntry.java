@@ -0,0 +1,52 @@
+/**
+ * A route as DV and HDV keep it and advertise it in routing packets :
+ * destination, interface, metric and the time it was last refreshed.
+ */
+class DVRoutingTableEntry implements RoutingTableEntry, java.io.Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private int destination, iface, metric, ttl;
+
+    DVRoutingTableEntry(int d, int i, int m, int t) {
+        this.destination = d;
+        this.iface = i;
+        this.metric = m;
+        this.ttl = t;
+    }
+
+    public int getDestination() {
+        return this.destination;
+    }
+
+    public void setDestination(int d) {
+        this.destination = d;
+    }
+
+    public int getInterface() {
+        return this.iface;
+    }
+
+    public void setInterface(int i) {
+        this.iface = i;
+    }
+
+    public int getMetric() {
+        return this.metric;
+    }
+
+    public void setMetric(int m) {
+        this.metric = m;
+    }
+
+    public int getTime() {
+        return this.ttl;
+    }
+
+    public void setTime(int t) {
+        this.ttl = t;
+    }
+
+    public String toString() {
+        return "d " + this.getDestination() + " i " + this.getInterface() + " m " + this.getMetric();
+    }
+}
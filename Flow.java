@@ -0,0 +1,111 @@
+import java.util.Random;
+/**
+ * The <code>Flow</code> class describes a stream of data packets between
+ * two routers. Rather than one <code>Event</code> per packet, the
+ * <code>Simulator</code> asks each flow how many packets to send at
+ * every time step between its start and stop times.
+ */
+public class Flow
+{
+    /**
+     * Constant bit rate, the same number of packets every time step. A
+     * fractional rate is spread evenly, 0.5 sending one packet every
+     * other step.
+     */
+    public static int CBR = 0;
+    /**
+     * Poisson arrivals with the rate as the mean per time step.
+     */
+    public static int POISSON = 1;
+
+    private int src;
+    private int dst;
+    private int start;
+    private int stop;
+    private int kind;
+    private double rate;
+    private Random rng;
+    // Fraction of a packet owed by a CBR flow from earlier steps.
+    private double credit = 0;
+
+    /**
+     * <code>Flow</code> constructor.
+     * @param s source router id
+     * @param d destination router id
+     * @param t0 first time step the flow sends on
+     * @param t1 time step the flow stops at, exclusive
+     * @param k either <code>CBR</code> or <code>POISSON</code>
+     * @param r packets per time step, or the mean for Poisson flows
+     */
+    public Flow(int s, int d, int t0, int t1, int k, double r)
+    {
+	src = s;
+	dst = d;
+	start = t0;
+	stop = t1;
+	kind = k;
+	rate = r;
+	// Seeded from the flow itself so runs are reproducible.
+	rng = new Random(((long)s << 32) ^ ((long)d << 16) ^ t0);
+    }
+
+    /**
+     * Gets the source router id
+     * @return int source
+     */
+    public int getSource()
+    {
+	return src;
+    }
+
+    /**
+     * Gets the destination router id
+     * @return int destination
+     */
+    public int getDestination()
+    {
+	return dst;
+    }
+
+    /**
+     * Returns the number of packets the flow sends at time step now,
+     * called once for each time step.
+     * @param now current time
+     * @return number of packets to send
+     */
+    public int packetsAt(int now)
+    {
+	if (now < start || now >= stop) return 0;
+	if (kind == CBR) {
+	    credit += rate;
+	    // Allow for rounding, ten steps at 0.1 make a packet.
+	    int n = (int)(credit + 1e-9);
+	    credit -= n;
+	    return n;
+	}
+	// Knuth's method, split into chunks so exp() does not underflow
+	// for large rates.
+	int n = 0;
+	double left = rate;
+	while (left > 0) {
+	    double step = Math.min(left, 30.0);
+	    double l = Math.exp(-step);
+	    double p = rng.nextDouble();
+	    while (p > l) {
+		n++;
+		p = p * rng.nextDouble();
+	    }
+	    left = left - step;
+	}
+	return n;
+    }
+
+    /**
+     * Generic toString method
+     * @return String
+     */
+    public String toString()
+    {
+	return "Flow "+src+" -> "+dst+" from "+start+" to "+stop+" "+(kind == CBR ? "cbr " : "poisson ")+rate;
+    }
+}
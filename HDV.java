@@ -0,0 +1,251 @@
+import java.util.HashMap;
+import java.util.Iterator;
+
+/**
+ * Hierarchical distance vector routing. Routers are grouped into areas
+ * with the <code>area</code> config line. Inside its own area a router
+ * keeps one route per router, as DV does. Every other area is reached
+ * through a single aggregate route towards a border router of that area,
+ * so table and update size grow with the size of the area rather than
+ * the size of the network. All routers in a simulation using areas should
+ * run HDV.
+ */
+public class HDV implements RoutingAlgorithm {
+
+    static int LOCAL = -1;
+    static int UNKNOWN = -2;
+    static int INFINITY = 60;
+
+    private int name;
+    private int index;
+    private AddressTable addresses;
+
+    private int updateInterval;
+    private boolean allowPReverse;
+    private boolean allowExpire;
+    private Router router;
+
+    // Routes to routers in our own area, keyed by dense index.
+    private HashMap<Integer, DVRoutingTableEntry> routingTable;
+    // Aggregate routes to other areas, keyed by area id. In these entries
+    // and on the wire an area is encoded as the destination -1 - area, so
+    // it cannot be mistaken for a router index.
+    private HashMap<Integer, DVRoutingTableEntry> areaTable;
+
+    public HDV() {
+    }
+
+    public void setRouterObject(Router obj) {
+        this.router = obj;
+    }
+
+    public void setUpdateInterval(int u) {
+        this.updateInterval = u;
+    }
+
+    public void setAllowPReverse(boolean flag) {
+        this.allowPReverse = flag;
+    }
+
+    public void setAllowExpire(boolean flag) {
+        this.allowExpire = flag;
+    }
+
+    public void initalise() {
+        this.name = this.router.getId();
+        this.index = this.router.getIndex();
+        this.addresses = this.router.getAddressTable();
+        this.routingTable = new HashMap<>();
+        this.areaTable = new HashMap<>();
+        this.routingTable.put(this.index, new DVRoutingTableEntry(this.index, LOCAL, 0, INFINITY));
+        if (RouteChange.on) changed(this.index, UNKNOWN, LOCAL, INFINITY, 0);
+    }
+
+    // Areas are read after the routers are created, so always look them up.
+    private int area() {
+        return this.addresses.getArea(this.index);
+    }
+
+    // Area of the router at the far end of an interface.
+    private int neighbourArea(int iface) {
+        Link l = this.router.getLinks()[iface];
+        int other = l.getRouter(0) == this.name ? l.getRouter(1) : l.getRouter(0);
+        return this.addresses.getArea(this.addresses.indexOf(other));
+    }
+
+    public int getNextHop(int destination) {
+        int d = this.addresses.indexOf(destination);
+        if (d < 0) return UNKNOWN;
+        int a = this.addresses.getArea(d);
+        DVRoutingTableEntry destinationEntry = (a == area()) ? this.routingTable.get(d) : this.areaTable.get(a);
+        if (destinationEntry == null) return UNKNOWN;
+        if (destinationEntry.getMetric() == INFINITY) return UNKNOWN;
+        return destinationEntry.getInterface();
+    }
+
+    public void tidyTable() {
+        tidy(this.routingTable);
+        tidy(this.areaTable);
+    }
+
+    // DV's rules, applied to one of the two tables.
+    private void tidy(HashMap<Integer, DVRoutingTableEntry> table) {
+        // Update links that have just been downed.
+        for (DVRoutingTableEntry dvEntry : table.values()) {
+            if (DV.downed(this.router, dvEntry.getInterface(), dvEntry.getMetric())) {
+                if (RouteChange.on) changed(dvEntry.getDestination(), dvEntry.getInterface(), dvEntry.getInterface(), dvEntry.getMetric(), INFINITY);
+                dvEntry.setMetric(INFINITY);
+                dvEntry.setTime(this.router.getCurrentTime());
+            }
+        }
+
+        if (allowExpire) {
+            Iterator<DVRoutingTableEntry> it = table.values().iterator();
+            while (it.hasNext()) {
+                DVRoutingTableEntry dvEntry = it.next();
+                if (dvEntry.getDestination() == this.index) continue;
+                int action = DV.expiry(dvEntry.getMetric(), dvEntry.getTime(), router.getCurrentTime(), updateInterval);
+                if (action == DV.POISON) {
+                    if (RouteChange.on) changed(dvEntry.getDestination(), dvEntry.getInterface(), dvEntry.getInterface(), dvEntry.getMetric(), INFINITY);
+                    dvEntry.setMetric(INFINITY);
+                    dvEntry.setTime(router.getCurrentTime());
+                } else if (action == DV.REMOVE) {
+                    if (RouteChange.on) changed(dvEntry.getDestination(), dvEntry.getInterface(), UNKNOWN, INFINITY, INFINITY);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    // Neighbours in our area get every route we hold. Neighbours in
+    // another area only get our area as one aggregate, plus the other
+    // areas we can reach.
+    public Packet generateRoutingPacket(int iface) {
+        if (!this.router.isUpdateDue()) return null;
+        if (!router.getInterfaceState(iface)) return null;
+
+        // Packets come from the router's pool, as in DV, and the entries
+        // of a recycled one are overwritten in place.
+        Packet routingPacket = this.router.getPacketPool().get(this.name, Packet.BROADCAST);
+        Payload payload = routingPacket.getPayload();
+        int neighbourArea = neighbourArea(iface);
+        int n = 0;
+
+        if (neighbourArea == area()) {
+            for (DVRoutingTableEntry dvEntry : this.routingTable.values()) {
+                n = addEntry(payload, n, dvEntry, iface);
+            }
+        } else {
+            n = putEntry(payload, n, -1 - area(), LOCAL, 0, this.router.getCurrentTime());
+        }
+        for (DVRoutingTableEntry dvEntry : this.areaTable.values()) {
+            if (-1 - dvEntry.getDestination() == neighbourArea) continue;
+            n = addEntry(payload, n, dvEntry, iface);
+        }
+        payload.truncate(n);
+        return routingPacket;
+    }
+
+    // Copies an entry into slot n of the payload, poisoning it if it
+    // points back out of iface, and returns the next slot.
+    private int addEntry(Payload payload, int n, DVRoutingTableEntry dvEntry, int iface) {
+        int metric = (this.allowPReverse && dvEntry.getInterface() == iface) ? INFINITY : dvEntry.getMetric();
+        return putEntry(payload, n, dvEntry.getDestination(), dvEntry.getInterface(), metric, dvEntry.getTime());
+    }
+
+    // Writes slot n of the payload, reusing the entry left there.
+    private int putEntry(Payload payload, int n, int d, int i, int metric, int time) {
+        Object old = n < payload.size() ? payload.getEntry(n) : null;
+        if (old instanceof DVRoutingTableEntry) {
+            DVRoutingTableEntry payloadEntry = (DVRoutingTableEntry) old;
+            payloadEntry.setDestination(d);
+            payloadEntry.setInterface(i);
+            payloadEntry.setMetric(metric);
+            payloadEntry.setTime(time);
+        } else {
+            payload.setEntry(n, new DVRoutingTableEntry(d, i, metric, time));
+        }
+        return n + 1;
+    }
+
+    public void processRoutingPacket(Packet p, int iface) {
+        int myArea = area();
+        int neighbourArea = this.addresses.getArea(this.addresses.indexOf(p.getSource()));
+
+        for (Object o : p.getPayload().getData()) {
+            DVRoutingTableEntry payloadEntry = (DVRoutingTableEntry) o;
+            int d = payloadEntry.getDestination();
+            int metric = payloadEntry.getMetric() + router.getInterfaceWeight(iface) < INFINITY ? payloadEntry.getMetric() + router.getInterfaceWeight(iface) : INFINITY;
+
+            if (d >= 0) {
+                // Per router routes are only taken from inside our area.
+                if (neighbourArea != myArea || this.addresses.getArea(d) != myArea) continue;
+                update(this.routingTable, d, d, iface, metric);
+            } else {
+                int a = -1 - d;
+                if (a == myArea) continue;
+                update(this.areaTable, a, d, iface, metric);
+            }
+        }
+    }
+
+    // The DV update rule for one advertised destination.
+    private void update(HashMap<Integer, DVRoutingTableEntry> table, int key, int d, int iface, int metric) {
+        DVRoutingTableEntry dvEntry = table.get(key);
+        if (dvEntry == null) {
+            if (metric == INFINITY) return;
+            table.put(key, new DVRoutingTableEntry(d, iface, metric, router.getCurrentTime()));
+            if (RouteChange.on) changed(d, UNKNOWN, iface, INFINITY, metric);
+        } else if (dvEntry.getInterface() == iface) {
+            if (!(dvEntry.getMetric() == INFINITY && metric == INFINITY))
+                dvEntry.setTime(this.router.getCurrentTime());
+            if (RouteChange.on && dvEntry.getMetric() != metric) changed(d, iface, iface, dvEntry.getMetric(), metric);
+            dvEntry.setMetric(metric);
+        } else if (metric < dvEntry.getMetric()) {
+            if (RouteChange.on) changed(d, dvEntry.getInterface(), iface, dvEntry.getMetric(), metric);
+            dvEntry.setInterface(iface);
+            dvEntry.setMetric(metric);
+            dvEntry.setTime(this.router.getCurrentTime());
+        }
+    }
+
+    // Reports a change to the route to d, a router index or -1 - area.
+    private void changed(int d, int oldIface, int newIface, int oldMetric, int newMetric) {
+        this.router.routeChanged(d >= 0 ? this.addresses.idOf(d) : d, oldIface, newIface, oldMetric, newMetric);
+    }
+
+    // Areas keep the -1 - area encoding, ids replace router indexes.
+    public int[] getRoutes() {
+        int[] routes = new int[3 * (this.routingTable.size() + this.areaTable.size())];
+        int n = 0;
+        for (DVRoutingTableEntry dvEntry : this.routingTable.values()) {
+            routes[n++] = this.addresses.idOf(dvEntry.getDestination());
+            routes[n++] = dvEntry.getInterface();
+            routes[n++] = dvEntry.getMetric();
+        }
+        for (DVRoutingTableEntry dvEntry : this.areaTable.values()) {
+            routes[n++] = dvEntry.getDestination();
+            routes[n++] = dvEntry.getInterface();
+            routes[n++] = dvEntry.getMetric();
+        }
+        return routes;
+    }
+
+    /**
+     * Prints the routing table to the screen.
+     * The format is :
+     * Router <id>
+     * d <destination> i <interface> m <metric>
+     * a <area> i <interface> m <metric>
+     */
+    public void showRoutes() {
+        System.out.println("Router " + this.name);
+        for (DVRoutingTableEntry dvEntry : this.routingTable.values()) {
+            System.out.println("d " + this.addresses.idOf(dvEntry.getDestination()) + " i " + dvEntry.getInterface() + " m " + dvEntry.getMetric());
+        }
+        for (HashMap.Entry<Integer, DVRoutingTableEntry> mapEntry : this.areaTable.entrySet()) {
+            System.out.println("a " + mapEntry.getKey() + " i " + mapEntry.getValue().getInterface() + " m " + mapEntry.getValue().getMetric());
+        }
+    }
+
+}
@@ -1,3 +1,4 @@
+import java.util.Random;
 import java.util.Vector;
 /**
  * A <code>Link</code> class that represents a link between two routers. 
@@ -10,10 +11,30 @@ public class Link
     private int[] router = new int[2];
     private int[] iface = new int[2];
     private int[] weight = new int[2];
-    private int[][] counter = new int[2][2];
+    private int[][] counter = new int[2][3];
     @SuppressWarnings("unchecked") private Vector<Packet>[] in = new Vector[2];
     @SuppressWarnings("unchecked") private Vector<Packet>[] out = new Vector[2];
     private boolean up;
+
+    /**
+     * Tail drop policy, packets arriving at a full queue are dropped.
+     */
+    public static int TAILDROP = 0;
+    /**
+     * Random early detection policy, packets are dropped with a
+     * probability that grows as the queue fills.
+     */
+    public static int RED = 1;
+
+    // RED drops nothing below half the capacity and at most one
+    // packet in RED_MAXP_INV at the capacity.
+    private static int RED_MAXP_INV = 10;
+
+    private int capacity = 0;
+    private int rate = 0;
+    private int policy = TAILDROP;
+    // One generator per end, as each end is only used by its own router.
+    private Random[] rng = new Random[2];
     
     private int SENT = 0;
     private int RECV = 1;
@@ -44,7 +65,88 @@ public class Link
 	counter[0][RECV] = 0;
 	counter[1][SENT] = 0;
 	counter[1][RECV] = 0;
+	counter[0][DROP] = 0;
+	counter[1][DROP] = 0;
 	up = true;
+	// Seeded from the end points so RED runs are reproducible, whichever
+	// thread each router runs on.
+	rng[0] = new Random(((long)r0 << 32) ^ ((long)i0 << 16) ^ ((long)r1 << 8) ^ i1);
+	rng[1] = new Random(((long)r1 << 32) ^ ((long)i1 << 16) ^ ((long)r0 << 8) ^ i0 ^ 0x5DEECE66DL);
+    }
+
+    /**
+     * Sets the capacity of each out bound queue, 0 means unbounded.
+     * @param c maximum number of packets queued at each end.
+     */
+    public void setCapacity(int c)
+    {
+	capacity = c;
+    }
+
+    /**
+     * Gets the capacity of each out bound queue, 0 means unbounded.
+     * @return the queue capacity.
+     */
+    public int getCapacity()
+    {
+	return capacity;
+    }
+
+    /**
+     * Sets the number of packets moved in each direction per time step,
+     * 0 means every queued packet is moved.
+     * @param r packets per time step.
+     */
+    public void setRate(int r)
+    {
+	rate = r;
+    }
+
+    /**
+     * Gets the number of packets moved in each direction per time step.
+     * @return packets per time step, 0 if unlimited.
+     */
+    public int getRate()
+    {
+	return rate;
+    }
+
+    /**
+     * Sets the drop policy used when the out bound queue is bounded.
+     * @param p either <code>TAILDROP</code> or <code>RED</code>
+     */
+    public void setDropPolicy(int p)
+    {
+	policy = p;
+    }
+
+    /**
+     * Gets the drop policy used when the out bound queue is bounded.
+     * @return either <code>TAILDROP</code> or <code>RED</code>
+     */
+    public int getDropPolicy()
+    {
+	return policy;
+    }
+
+    /**
+     * Decides whether a packet arriving at a queue of length len is dropped
+     * under the current policy.
+     * @param end the end whose out bound queue it is.
+     * @param len the current queue length.
+     * @return whether to drop the packet.
+     */
+    private boolean shouldDrop(int end, int len)
+    {
+	if (capacity == 0) return false;
+	if (len >= capacity) return true;
+	if (policy == RED) {
+	    int min = capacity / 2;
+	    if (len < min) return false;
+	    // Linear from 0 at min to 1/RED_MAXP_INV at the capacity.
+	    return rng[end].nextInt(RED_MAXP_INV * (capacity - min)) < (len - min);
+	}
+	return false;
     }
 
     /**
@@ -75,6 +177,17 @@ public class Link
 	    return iface[1];
     }
 
+    /**
+     * Get the weight of the interface at a particular end of the link, 0
+     * specifies one end and 1 the other.
+     * @param id which end of the link (0, 1)
+     * @return the interface weight.
+     */
+    public int getWeight(int id)
+    {
+	return weight[(id == 0) ? 0 : 1];
+    }
+
     /**
      * Is the link up or down.
      * @return showing the links status.
@@ -95,15 +208,51 @@ public class Link
 
     /**
      * If the link is up moves the packets from the out queue of one end
-     * to the in queue of the other end.
+     * to the in queue of the other end, then reports any packets left
+     * behind.
      */
     public void movePackets()
+    {
+	transfer();
+	reportBacklog();
+    }
+
+    /**
+     * Are there packets in either out bound queue. A link without any
+     * has nothing to move or report this time step.
+     * @return boolean
+     */
+    public boolean hasQueued()
+    {
+	return out[0].size() != 0 || out[1].size() != 0;
+    }
+
+    /**
+     * Prints the size of each out bound queue that still holds packets
+     * after <code>transfer</code>, because the link is down or rate
+     * limited.
+     */
+    public void reportBacklog()
+    {
+	if (out[0].size() != 0) { System.out.println("size of out0 "+out[0].size()); }
+	if (out[1].size() != 0) { System.out.println("size of out1 "+out[1].size()); }
+    }
+
+    /**
+     * If the link is up moves the packets from the out queue of one end
+     * to the in queue of the other end, without printing anything, so
+     * links may be moved on several threads.
+     */
+    public void transfer()
     {
 	Packet p;
 	Payload payload;
+	int moved;
 	synchronized (this) {
 	    if (isUp()) {
-		while (out[0].size() > 0) {
+		int queued = out[0].size() + out[1].size();
+		moved = 0;
+		while (out[0].size() > 0 && (rate == 0 || moved++ < rate)) {
 		    p = out[0].firstElement();
 		    // for data packets we mark them with the path.
 		    if (p.getType() == Packet.DATA) {
@@ -112,9 +261,10 @@ public class Link
 			p.setPayload(payload);
 		    }
 		    in[1].addElement(p);
-		    out[0].removeElement(p);
+		    out[0].removeElementAt(0);
 		}
-		while (out[1].size() > 0) {
+		moved = 0;
+		while (out[1].size() > 0 && (rate == 0 || moved++ < rate)) {
 		    p = out[1].firstElement();
 		    // for data packets we mark them with the path.
 		    if (p.getType() == Packet.DATA) {
@@ -123,32 +273,32 @@ public class Link
 			p.setPayload(payload);
 		    }
 		    in[0].addElement(p);
-		    out[1].removeElement(p);
+		    out[1].removeElementAt(0);
 		}
+		if (Metrics.on) Metrics.countMoved(queued - out[0].size() - out[1].size());
 	    }
-	    if (out[0].size() != 0) { System.out.println("size of out0 "+out[0].size()); }
-	    if (out[1].size() != 0) { System.out.println("size of out1 "+out[1].size()); }
-
 	}
     }
 
     /**
      * Places the <code>Packet</code> p, in the out bound queue for the 
-     * router specified by router id.
+     * router specified by router id. If the queue is bounded the packet
+     * may be dropped according to the drop policy.
      * @param routerid the router whose out bound queue to place 
      * the packet in.
      * @param p the packet being sent.
+     * @return whether the packet was queued rather than dropped.
      */
-    public void enqueuePackets(int routerid, Packet p)
+    public boolean enqueuePackets(int routerid, Packet p)
     {
-	if (routerid == router[0]) { 
-	    out[0].addElement(p); 
-	    counter[0][SENT]++;
-	}
-	else { 
-	    out[1].addElement(p); 
-	    counter[1][SENT]++;
+	int end = (routerid == router[0]) ? 0 : 1;
+	if (shouldDrop(end, out[end].size())) {
+	    counter[end][DROP]++;
+	    return false;
 	}
+	out[end].addElement(p);
+	counter[end][SENT]++;
+	return true;
     }
 
     /**
@@ -195,6 +345,36 @@ public class Link
 	return null;
     }
 
+    /**
+     * Removes and returns every packet in the in bound queue at one end
+     * of the link without counting them as received. Used to hand the
+     * packets to the simulator process that owns that end.
+     * @param end 0, 1 specifies the end.
+     * @return the packets removed, oldest first.
+     */
+    public Vector<Packet> drainInbound(int end)
+    {
+	Vector<Packet> v;
+	synchronized (this) {
+	    v = new Vector<Packet>(in[end]);
+	    in[end].removeAllElements();
+	}
+	return v;
+    }
+
+    /**
+     * Appends a packet to the in bound queue at one end of the link. Used
+     * for packets handed over by another simulator process.
+     * @param end 0, 1 specifies the end.
+     * @param p the packet.
+     */
+    public void deliverInbound(int end, Packet p)
+    {
+	synchronized (this) {
+	    in[end].addElement(p);
+	}
+    }
+
     /**
      * Returns the queue length for a particular direction and end of 
      * the link. 
@@ -226,16 +406,45 @@ public class Link
     }
 
     /**
-     * Returns the packet counters for this link.
+     * Returns the packet counters of one end of the link as (sent,
+     * received, dropped).
+     * @param end which end of the link (0, 1)
+     * @return int[]
+     */
+    public int[] getCounters(int end)
+    {
+	int[] c = counter[(end == 0) ? 0 : 1];
+	return new int[] { c[SENT], c[RECV], c[DROP] };
+    }
+
+    /**
+     * Sets the counters of one end, for an end run by another simulator
+     * process.
+     * @param end which end of the link (0, 1)
+     * @param c the counters as (sent, received, dropped)
+     */
+    public void setCounters(int end, int[] c)
+    {
+	int[] v = counter[(end == 0) ? 0 : 1];
+	v[SENT] = c[0];
+	v[RECV] = c[1];
+	v[DROP] = c[2];
+    }
+
+    /**
+     * Returns the packet counters for this link. Queue drops are only
+     * shown for bounded links.
      * @return string representation of packet counters.
      */
     public String dumpPacketStats()
     {
 	String s = "(R0:"+router[0]+" I0:"+iface[0]+")";
 	s = s + " s "+counter[0][SENT]+" r "+counter[0][RECV];
+	if (capacity != 0) { s = s + " d "+counter[0][DROP]; }
 	s = s + "<-->";
 	s = s + "(R1:"+router[1]+" I1:"+iface[1]+")";
 	s = s + " s "+counter[1][SENT]+" r "+counter[1][RECV];
+	if (capacity != 0) { s = s + " d "+counter[1][DROP]; }
 	return s;	
     }
 
@@ -0,0 +1,108 @@
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The <code>LinkMover</code> class runs the link phase of each time step,
+ * <code>Link.transfer</code> on every link, on several threads. Each link
+ * only touches its own queues, so the links are split into chunks of
+ * consecutive links and the chunks are moved in parallel. Links with
+ * nothing in their out bound queues are skipped. Each chunk notes the
+ * links that still hold packets afterwards, and their
+ * <code>size of out</code> lines are printed in link order once every
+ * chunk is done, so the output matches the single threaded phase.
+ */
+public class LinkMover
+{
+    // Aim for a few chunks per thread so uneven chunks balance out, but
+    // keep chunks large enough to be worth a task.
+    private static int CHUNKS_PER_THREAD = 4;
+    private static int MIN_CHUNK = 64;
+
+    private Link[] links;
+    private ExecutorService pool;
+    private Vector<Chunk> chunks = new Vector<Chunk>();
+
+    /**
+     * <code>LinkMover</code> constructor, starts the worker threads.
+     * @param l the links to move, in link order
+     * @param n number of worker threads, 0 for one per processor
+     */
+    public LinkMover(Link[] l, int n)
+    {
+	links = l;
+	if (n <= 0) n = Runtime.getRuntime().availableProcessors();
+	int size = Math.max(MIN_CHUNK, (l.length + n * CHUNKS_PER_THREAD - 1) / (n * CHUNKS_PER_THREAD));
+	for (int from = 0; from < l.length; from += size) {
+	    chunks.addElement(new Chunk(from, Math.min(l.length, from + size)));
+	}
+	pool = Executors.newFixedThreadPool(Math.max(1, Math.min(n, chunks.size())));
+    }
+
+    /**
+     * Moves the packets on every link and waits for them, then prints
+     * the backlog of each link in link order.
+     */
+    public void run()
+    {
+	try {
+	    for (Future<Object> f : pool.invokeAll(chunks)) {
+		f.get();
+	    }
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	} catch (ExecutionException e) {
+	    throw new RuntimeException("Link mover failed", e.getCause());
+	}
+	for (Chunk c : chunks) {
+	    for (int k = 0; k < c.count; k++) {
+		links[c.backlog[k]].reportBacklog();
+	    }
+	}
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void close()
+    {
+	pool.shutdown();
+    }
+
+    /**
+     * Links from..to-1, and those of them left holding packets.
+     */
+    private class Chunk implements Callable<Object>
+    {
+	private int from;
+	private int to;
+	private int[] backlog;
+	private int count;
+
+	Chunk(int f, int t)
+	{
+	    from = f;
+	    to = t;
+	    backlog = new int[t - f];
+	}
+
+	public Object call()
+	{
+	    count = 0;
+	    for (int i = from; i < to; i++) {
+		Link l = links[i];
+		if (!l.hasQueued()) continue;
+		if (Metrics.on) {
+		    Metrics.queue(l, l.queueLength(0,false));
+		    Metrics.queue(l, l.queueLength(1,false));
+		}
+		l.transfer();
+		if (l.hasQueued()) backlog[count++] = i;
+	    }
+	    return null;
+	}
+    }
+}
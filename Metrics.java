@@ -0,0 +1,208 @@
+import java.util.Arrays;
+
+/**
+ * The <code>Metrics</code> class is the simulator's registry of hot path
+ * measurements : a nanosecond histogram per phase of the time step,
+ * counters for routing entries processed and packets moved, and the
+ * link queue high water mark. It is off by default, and every hook is
+ * guarded by the <code>on</code> flag so a normal run only pays for one
+ * branch. <code>metrics on</code> in the config turns it on,
+ * <code>metrics tick</code> also prints a summary line every time step,
+ * and the <code>dumpMetrics &lt;time&gt;</code> event prints the registry.
+ * The hooks are synchronized as routers may run on several threads.
+ */
+public class Metrics
+{
+    /**
+     * Whether metrics are being collected.
+     */
+    public static boolean on = false;
+    /**
+     * Whether a summary line is printed every time step.
+     */
+    public static boolean perTick = false;
+
+    /**
+     * Simulator event processing.
+     */
+    public static int EVENTS = 0;
+    /**
+     * Simulator traffic flows.
+     */
+    public static int FLOWS = 1;
+    /**
+     * Simulator router tasks, the sum of the three router phases.
+     */
+    public static int ROUTERS = 2;
+    /**
+     * Router packet processing.
+     */
+    public static int ROUTER_PACKETS = 3;
+    /**
+     * Routing algorithm table tidying.
+     */
+    public static int TIDY = 4;
+    /**
+     * Router routing table sending.
+     */
+    public static int SEND_TABLE = 5;
+    /**
+     * Simulator link packet moving.
+     */
+    public static int LINKS = 6;
+    /**
+     * The whole time step.
+     */
+    public static int TICK = 7;
+
+    private static String[] names = { "process_events", "process_flows", "process_routers",
+				      "  process_packets", "  tidyTable", "  sendRoutingTable",
+				      "process_packets", "tick" };
+    // Histogram buckets are powers of two of nanoseconds.
+    private static long[][] buckets = new long[names.length][64];
+    private static long[] count = new long[names.length];
+    private static long[] total = new long[names.length];
+    private static long[] max = new long[names.length];
+
+    private static long entries = 0;
+    private static long moved = 0;
+    private static int highWater = 0;
+    private static String highWaterLink = "";
+    private static long tickEntries = 0;
+    private static long tickMoved = 0;
+    private static int tickHighWater = 0;
+
+    /**
+     * Records the time taken by a phase that started at start.
+     * @param phase the phase
+     * @param start <code>System.nanoTime()</code> when the phase started
+     * @return the current <code>System.nanoTime()</code>, the start of
+     * the next phase
+     */
+    public static synchronized long time(int phase, long start)
+    {
+	long now = System.nanoTime();
+	long ns = now - start;
+	buckets[phase][63 - Long.numberOfLeadingZeros(ns | 1)]++;
+	count[phase]++;
+	total[phase] += ns;
+	if (ns > max[phase]) max[phase] = ns;
+	return now;
+    }
+
+    /**
+     * Counts routing entries handed to a routing algorithm.
+     * @param n number of entries
+     */
+    public static synchronized void countEntries(int n)
+    {
+	tickEntries += n;
+    }
+
+    /**
+     * Counts packets moved across a link.
+     * @param n number of packets
+     */
+    public static synchronized void countMoved(int n)
+    {
+	tickMoved += n;
+    }
+
+    /**
+     * Records a link queue length.
+     * @param l the link
+     * @param len the queue length
+     */
+    public static synchronized void queue(Link l, int len)
+    {
+	if (len > tickHighWater) tickHighWater = len;
+	if (len > highWater) {
+	    highWater = len;
+	    highWaterLink = l.toString();
+	}
+    }
+
+    /**
+     * Ends a time step, adding its counters to the totals and printing
+     * the summary line if asked to.
+     * @param now current time
+     * @param start <code>System.nanoTime()</code> when the step started
+     */
+    public static void endTick(int now, long start)
+    {
+	long ns = System.nanoTime() - start;
+	time(TICK, start);
+	entries += tickEntries;
+	moved += tickMoved;
+	if (perTick) {
+	    System.out.println("Metrics "+now+" : "+(ns / 1000)+"us entries "+tickEntries
+			       +" moved "+tickMoved+" queue "+tickHighWater);
+	}
+	tickEntries = 0;
+	tickMoved = 0;
+	tickHighWater = 0;
+    }
+
+    /**
+     * Turns metrics off and clears the registry.
+     */
+    public static synchronized void reset()
+    {
+	on = false;
+	perTick = false;
+	for (long[] b : buckets) Arrays.fill(b, 0);
+	Arrays.fill(count, 0);
+	Arrays.fill(total, 0);
+	Arrays.fill(max, 0);
+	entries = 0;
+	moved = 0;
+	highWater = 0;
+	highWaterLink = "";
+	tickEntries = 0;
+	tickMoved = 0;
+	tickHighWater = 0;
+    }
+
+    /**
+     * Returns the registry as text.
+     * @return String
+     */
+    public static String dump()
+    {
+	StringBuilder s = new StringBuilder();
+	for (int p = 0; p < names.length; p++) {
+	    s.append(names[p]).append(" n ").append(count[p]);
+	    if (count[p] > 0) {
+		s.append(" mean ").append(format(total[p] / count[p]));
+		s.append(" p50 <").append(format(percentile(p, 0.5)));
+		s.append(" p99 <").append(format(percentile(p, 0.99)));
+		s.append(" max ").append(format(max[p]));
+	    }
+	    s.append('\n');
+	}
+	s.append("routing entries ").append(entries);
+	s.append(" packets moved ").append(moved);
+	s.append(" queue high water ").append(highWater);
+	if (highWater > 0) s.append(" on ").append(highWaterLink);
+	s.append('\n');
+	return s.toString();
+    }
+
+    // Nanoseconds below 10us, microseconds above.
+    private static String format(long ns)
+    {
+	return (ns < 10000) ? ns+"ns" : (ns / 1000)+"us";
+    }
+
+    // Upper bound of the bucket holding the given fraction of samples.
+    private static long percentile(int phase, double fraction)
+    {
+	long want = (long)Math.ceil(count[phase] * fraction);
+	long seen = 0;
+	for (int b = 0; b < 64; b++) {
+	    seen += buckets[phase][b];
+	    if (seen >= want) return (b >= 62) ? Long.MAX_VALUE : (2L << b);
+	}
+	return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,381 @@
+import java.lang.management.ManagementFactory;
+import java.util.Vector;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * The <code>Monitor</code> class publishes the state of a running
+ * simulation as JMX MBeans, so a local JMX client such as jconsole can
+ * watch a long run. <code>jmx on</code> in the config registers
+ * <ul>
+ * <li><code>RoutingSim:type=Simulation</code>, the current time step,
+ * time steps per second and totals over every router and link,</li>
+ * <li><code>RoutingSim:type=Router,id=&lt;id&gt;</code> for each router,
+ * its packet and routing traffic counters and routing table size,</li>
+ * <li><code>RoutingSim:type=Link,ends=&lt;r0.i0-r1.i1&gt;</code> for each
+ * link, its state, queue lengths and counters.</li>
+ * </ul>
+ * Client threads never touch routers or links while the simulation
+ * runs. A query asks the simulation thread for a snapshot and waits for
+ * it : at the end of the next time step the simulation thread copies
+ * every value into a new snapshot and publishes it. Until a client asks,
+ * the simulation only pays for one volatile write and read a step.
+ * While the run is paused between calls to <code>Simulator.step</code>
+ * the client takes the snapshot itself, holding the monitor's own lock
+ * so the run cannot resume meanwhile. Changes made through the
+ * simulator between steps, such as sending a packet or setting a link's
+ * state, go through <code>change</code> and hold the same lock, so a
+ * client never copies a router or link half way through one.
+ */
+public class Monitor
+{
+    private static String DOMAIN = "RoutingSim";
+    // How long a query waits for the end of a time step, in milliseconds.
+    private static long WAIT = 500;
+
+    private Router[] routers;
+    private Link[] links;
+    private Vector<ObjectName> names = new Vector<ObjectName>();
+    private volatile int time = 0;
+    private volatile boolean requested = false;
+    private volatile boolean running = false;
+    // Set by a change between steps, which the time alone does not show.
+    private volatile boolean stale = false;
+    private volatile Snapshot latest;
+    private Object lock = new Object();
+
+    /**
+     * <code>Monitor</code> constructor, takes a first snapshot and
+     * registers the MBeans, replacing those of an earlier simulation.
+     * Must be called from the simulation thread.
+     * @param r the routers to publish
+     * @param l the links to publish
+     */
+    public Monitor(Router[] r, Link[] l)
+    {
+	routers = r;
+	links = l;
+	latest = new Snapshot(0, System.nanoTime(), null);
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	try {
+	    register(server, new ObjectName(DOMAIN+":type=Simulation"), new Simulation());
+	    for (int i = 0; i < r.length; i++) {
+		register(server, new ObjectName(DOMAIN+":type=Router,id="+r[i].getId()), new RouterBean(i));
+	    }
+	    for (int i = 0; i < l.length; i++) {
+		String ends = l[i].getRouter(0)+"."+l[i].getInterface(0)+"-"+l[i].getRouter(1)+"."+l[i].getInterface(1);
+		register(server, new ObjectName(DOMAIN+":type=Link,ends="+ends), new LinkBean(i));
+	    }
+	} catch (JMException e) {
+	    System.out.println("Cannot register MBeans : "+e);
+	}
+    }
+
+    private void register(MBeanServer server, ObjectName name, Object bean) throws JMException
+    {
+	if (server.isRegistered(name)) server.unregisterMBean(name);
+	server.registerMBean(bean, name);
+	names.addElement(name);
+    }
+
+    /**
+     * Marks the end of a time step, and takes a snapshot if a client is
+     * waiting for one. Called from the simulation thread.
+     * @param now the time step just run
+     */
+    public void tick(int now)
+    {
+	time = now;
+	if (requested) publish(now);
+    }
+
+    /**
+     * Marks the start of a run of time steps, waiting for any client
+     * taking a snapshot.
+     */
+    public void resume()
+    {
+	synchronized (lock) {
+	    running = true;
+	}
+    }
+
+    /**
+     * Marks the end of a run of time steps, clients take snapshots
+     * themselves until the next one.
+     */
+    public void pause()
+    {
+	synchronized (lock) {
+	    running = false;
+	    lock.notifyAll();
+	}
+    }
+
+    /**
+     * Runs a change to the routers or links made between time steps,
+     * holding the lock paused clients take snapshots under, and marks
+     * the snapshot out of date.
+     * @param r the change
+     */
+    public void change(Runnable r)
+    {
+	synchronized (lock) {
+	    r.run();
+	    stale = true;
+	}
+    }
+
+    /**
+     * Unregisters the MBeans.
+     */
+    public void close()
+    {
+	MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+	for (ObjectName n : names) {
+	    try {
+		if (server.isRegistered(n)) server.unregisterMBean(n);
+	    } catch (JMException e) {
+	    }
+	}
+	names.clear();
+    }
+
+    private void publish(int now)
+    {
+	latest = new Snapshot(now, System.nanoTime(), latest);
+	stale = false;
+	requested = false;
+	synchronized (lock) {
+	    lock.notifyAll();
+	}
+    }
+
+    // Gets a snapshot of the current time step, waiting for the
+    // simulation thread to take one if need be.
+    private Snapshot fresh()
+    {
+	Snapshot s = latest;
+	if (s.time == time && !stale) return s;
+	long end = System.currentTimeMillis() + WAIT;
+	synchronized (lock) {
+	    if (running) requested = true;
+	    long left;
+	    while (latest == s && running && (left = end - System.currentTimeMillis()) > 0) {
+		try {
+		    lock.wait(left);
+		} catch (InterruptedException e) {
+		    Thread.currentThread().interrupt();
+		    break;
+		}
+	    }
+	    if (!running) {
+		// Nothing left for the simulation thread to publish.
+		requested = false;
+		if (latest.time != time || stale) {
+		    latest = new Snapshot(time, System.nanoTime(), latest);
+		    stale = false;
+		}
+	    }
+	    return latest;
+	}
+    }
+
+    /**
+     * Every published value at the end of one time step.
+     */
+    private class Snapshot
+    {
+	int time;
+	long nanos;
+	double ticksPerSecond;
+	// Per router : sent, received, dropped, forwarded, control packets,
+	// routing entries and table size.
+	int[][] router;
+	// Per link : out bound then in bound queue of each end, and the
+	// sent, received, dropped counters of each end.
+	boolean[] up;
+	int[][] queues;
+	int[][] counters;
+
+	Snapshot(int t, long n, Snapshot prev)
+	{
+	    time = t;
+	    nanos = n;
+	    if (prev != null && t > prev.time) {
+		ticksPerSecond = (t - prev.time) * 1e9 / Math.max(1, n - prev.nanos);
+	    }
+	    else if (prev != null) {
+		ticksPerSecond = prev.ticksPerSecond;
+	    }
+	    router = new int[routers.length][];
+	    for (int i = 0; i < routers.length; i++) {
+		int[] p = routers[i].getPacketCounts();
+		int[] c = routers[i].getControlCounts();
+		int[] routes = routers[i].getRoutes();
+		router[i] = new int[] { p[0], p[1], p[2], p[3], c[0], c[1], (routes == null) ? -1 : routes.length / 3 };
+	    }
+	    up = new boolean[links.length];
+	    queues = new int[links.length][];
+	    counters = new int[links.length][];
+	    for (int i = 0; i < links.length; i++) {
+		Link l = links[i];
+		up[i] = l.isUp();
+		queues[i] = new int[] { l.queueLength(0, false), l.queueLength(1, false),
+					l.queueLength(0, true), l.queueLength(1, true) };
+		int[] a = l.getCounters(0);
+		int[] b = l.getCounters(1);
+		counters[i] = new int[] { a[0], a[1], a[2], b[0], b[1], b[2] };
+	    }
+	}
+
+	long sumRouters(int k)
+	{
+	    long n = 0;
+	    for (int[] r : router) n += Math.max(0, r[k]);
+	    return n;
+	}
+    }
+
+    /**
+     * Totals over the whole simulation.
+     */
+    public interface SimulationMXBean
+    {
+	int getTime();
+	double getTicksPerSecond();
+	int getRouterCount();
+	int getLinkCount();
+	int getLinksDown();
+	long getQueuedPackets();
+	long getPacketsSent();
+	long getPacketsReceived();
+	long getPacketsDropped();
+	long getPacketsForwarded();
+	long getRoutingPackets();
+	long getRoutingEntries();
+	long getRoutes();
+    }
+
+    /**
+     * One router's counters and table size.
+     */
+    public interface RouterMXBean
+    {
+	int getId();
+	int getPacketsSent();
+	int getPacketsReceived();
+	int getPacketsDropped();
+	int getPacketsForwarded();
+	int getRoutingPackets();
+	int getRoutingEntries();
+	int getTableSize();
+    }
+
+    /**
+     * One link's state, queues and counters, each array by end.
+     */
+    public interface LinkMXBean
+    {
+	String getEnds();
+	boolean isUp();
+	int[] getOutboundQueues();
+	int[] getInboundQueues();
+	int[] getPacketsSent();
+	int[] getPacketsReceived();
+	int[] getPacketsDropped();
+    }
+
+    private class Simulation implements SimulationMXBean
+    {
+	public int getTime() { return fresh().time; }
+	public double getTicksPerSecond() { return fresh().ticksPerSecond; }
+	public int getRouterCount() { return routers.length; }
+	public int getLinkCount() { return links.length; }
+
+	public int getLinksDown()
+	{
+	    int n = 0;
+	    for (boolean u : fresh().up) if (!u) n++;
+	    return n;
+	}
+
+	public long getQueuedPackets()
+	{
+	    long n = 0;
+	    for (int[] q : fresh().queues) n += q[0] + q[1] + q[2] + q[3];
+	    return n;
+	}
+
+	public long getPacketsSent() { return fresh().sumRouters(0); }
+	public long getPacketsReceived() { return fresh().sumRouters(1); }
+	public long getPacketsDropped() { return fresh().sumRouters(2); }
+	public long getPacketsForwarded() { return fresh().sumRouters(3); }
+	public long getRoutingPackets() { return fresh().sumRouters(4); }
+	public long getRoutingEntries() { return fresh().sumRouters(5); }
+	public long getRoutes() { return fresh().sumRouters(6); }
+    }
+
+    private class RouterBean implements RouterMXBean
+    {
+	private int index;
+
+	RouterBean(int i)
+	{
+	    index = i;
+	}
+
+	public int getId() { return routers[index].getId(); }
+	public int getPacketsSent() { return fresh().router[index][0]; }
+	public int getPacketsReceived() { return fresh().router[index][1]; }
+	public int getPacketsDropped() { return fresh().router[index][2]; }
+	public int getPacketsForwarded() { return fresh().router[index][3]; }
+	public int getRoutingPackets() { return fresh().router[index][4]; }
+	public int getRoutingEntries() { return fresh().router[index][5]; }
+	public int getTableSize() { return fresh().router[index][6]; }
+    }
+
+    private class LinkBean implements LinkMXBean
+    {
+	private int index;
+
+	LinkBean(int i)
+	{
+	    index = i;
+	}
+
+	public String getEnds() { return links[index].toString(); }
+	public boolean isUp() { return fresh().up[index]; }
+
+	public int[] getOutboundQueues()
+	{
+	    int[] q = fresh().queues[index];
+	    return new int[] { q[0], q[1] };
+	}
+
+	public int[] getInboundQueues()
+	{
+	    int[] q = fresh().queues[index];
+	    return new int[] { q[2], q[3] };
+	}
+
+	public int[] getPacketsSent()
+	{
+	    int[] c = fresh().counters[index];
+	    return new int[] { c[0], c[3] };
+	}
+
+	public int[] getPacketsReceived()
+	{
+	    int[] c = fresh().counters[index];
+	    return new int[] { c[1], c[4] };
+	}
+
+	public int[] getPacketsDropped()
+	{
+	    int[] c = fresh().counters[index];
+	    return new int[] { c[2], c[5] };
+	}
+    }
+}
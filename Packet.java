@@ -1,9 +1,14 @@
+import java.io.Serializable;
 import java.util.Vector;
 /**
- * The <code>Packet</code> class models a network packet. 
+ * The <code>Packet</code> class models a network packet. Packets are
+ * serializable so they can cross between the processes of a partitioned
+ * simulation, which requires payload entries to be serializable too.
  */
-public class Packet
+public class Packet implements Serializable
 {
+    private static final long serialVersionUID = 1L;
+
     /**
      * The unknown packet type, used before a packet is classified.
      */ 
@@ -18,9 +23,10 @@ public class Packet
     public static int ROUTING = 2;
 
     /**
-     * The Broadcast addess
+     * The Broadcast addess. Negative addresses are reserved, so router
+     * ids can use the whole non-negative int range.
      */ 
-    public static int BROADCAST = 255;
+    public static int BROADCAST = -2;
     /**
      * The unknown address.
      */
@@ -48,6 +54,21 @@ public class Packet
 	seq = 0;
     }
 
+    /**
+     * Reinitialises a packet taken from a <code>PacketPool</code>, as if
+     * it were newly constructed but keeping its payload object.
+     * @param s source address
+     * @param d destination address
+     */
+    public void recycle(int s, int d)
+    {
+	src = s;
+	dst = d;
+	type = UNKNOWN;
+	ttl = 255;
+	seq = 0;
+    }
+
     /**
      * Gets the source address
      * @return int source address
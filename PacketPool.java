@@ -0,0 +1,61 @@
+/**
+ * The <code>PacketPool</code> class keeps routing packets for reuse so a
+ * router in steady state does not allocate a new <code>Packet</code>,
+ * <code>Payload</code> and payload entries every update. Each router owns
+ * one pool and only that router touches it.
+ * <p>
+ * Ownership : a packet taken from the pool belongs to the routing
+ * algorithm until it is passed to <code>Router.send</code>, then to the
+ * <code>Link</code> until it is dequeued, and then to the receiving
+ * router. Once <code>processRoutingPacket</code> returns, the receiving
+ * router puts the packet into its own pool, so a routing algorithm must
+ * not keep references to a received packet or its payload entries.
+ * A recycled packet keeps its payload, so the generating algorithm can
+ * overwrite the old entries in place.
+ */
+public class PacketPool
+{
+    private Packet[] free;
+    private int count = 0;
+
+    /**
+     * <code>PacketPool</code> constructor.
+     * @param capacity the most packets kept, extra released packets
+     * are left to the garbage collector.
+     */
+    public PacketPool(int capacity)
+    {
+	free = new Packet[Math.max(1, capacity)];
+    }
+
+    /**
+     * Gets a routing packet, reusing a released one if there is one.
+     * @param src source address
+     * @param dst destination address
+     * @return a routing packet whose payload may hold old entries
+     */
+    public Packet get(int src, int dst)
+    {
+	if (count == 0) {
+	    Packet p = new Packet(src, dst);
+	    p.setType(Packet.ROUTING);
+	    return p;
+	}
+	Packet p = free[--count];
+	free[count] = null;
+	p.recycle(src, dst);
+	p.setType(Packet.ROUTING);
+	return p;
+    }
+
+    /**
+     * Returns a routing packet to the pool. Other packet types are
+     * ignored, data packets carry their path and are not reused.
+     * @param p the packet
+     */
+    public void release(Packet p)
+    {
+	if (p.getType() != Packet.ROUTING || count == free.length) return;
+	free[count++] = p;
+    }
+}
@@ -0,0 +1,270 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The <code>Partition</code> class connects this simulator process to the
+ * other processes of a partitioned run over loopback TCP. Routers are
+ * split into contiguous blocks of indexes, one block per process, and every
+ * process holds a copy of every <code>Link</code>. A link whose ends are
+ * owned by different processes is moved locally as usual, after which
+ * <code>exchange</code> ships the in bound queue of the remote end to the
+ * process that owns it, along with the counters of the local end, so
+ * every process prints the whole link in its packet statistics. Each
+ * process sends every other process exactly one message per time step,
+ * so the exchange is also the barrier that keeps all processes on the
+ * same time step.
+ * <p>
+ * At start up each process listens on a port of its own choosing and
+ * reports it to the parent, which hands the full list back once every
+ * process has reported, see <code>rendezvous</code>.
+ */
+public class Partition
+{
+    private int self;
+    private int count;
+    private AddressTable addresses;
+    private Socket[] sockets;
+    private ObjectOutputStream[] out;
+    private ObjectInputStream[] in;
+    private ExecutorService writers;
+
+    /**
+     * <code>Partition</code> constructor, listens on a free port, learns
+     * the ports of the other processes from the parent and connects to
+     * every other process of the run.
+     * @param k the index of this process
+     * @param n the number of processes
+     * @param parent the loopback port the parent waits on
+     * @param a the table of router ids in the simulation
+     * @throws IOException if a peer cannot be reached
+     */
+    public Partition(int k, int n, int parent, AddressTable a) throws IOException
+    {
+	self = k;
+	count = n;
+	addresses = a;
+	sockets = new Socket[count];
+	out = new ObjectOutputStream[count];
+	in = new ObjectInputStream[count];
+
+	InetAddress lo = InetAddress.getLoopbackAddress();
+	ServerSocket server = new ServerSocket(0, count, lo);
+	int[] ports = new int[count];
+	try (Socket p = connect(new InetSocketAddress(lo, parent))) {
+	    DataOutputStream o = new DataOutputStream(p.getOutputStream());
+	    o.writeInt(self);
+	    o.writeInt(server.getLocalPort());
+	    o.flush();
+	    DataInputStream i = new DataInputStream(p.getInputStream());
+	    for (int j = 0; j < count; j++) ports[j] = i.readInt();
+	}
+	// Lower indexes accept, higher indexes connect.
+	for (int i = 0; i < self; i++) {
+	    sockets[i] = connect(new InetSocketAddress(lo, ports[i]));
+	    sockets[i].getOutputStream().write(self);
+	}
+	for (int i = self + 1; i < count; i++) {
+	    Socket s = server.accept();
+	    sockets[s.getInputStream().read()] = s;
+	}
+	server.close();
+	for (int i = 0; i < count; i++) {
+	    if (i == self) continue;
+	    sockets[i].setTcpNoDelay(true);
+	    out[i] = new ObjectOutputStream(new BufferedOutputStream(sockets[i].getOutputStream()));
+	    out[i].flush();
+	}
+	for (int i = 0; i < count; i++) {
+	    if (i == self) continue;
+	    in[i] = new ObjectInputStream(new BufferedInputStream(sockets[i].getInputStream()));
+	}
+	writers = Executors.newFixedThreadPool(Math.max(1, count - 1));
+	System.out.println("Partition "+self+" of "+count+" connected");
+    }
+
+    /**
+     * Waits on the parent's side for every process to report the port it
+     * listens on, then sends each of them the ports of all.
+     * @param server the socket the processes report to
+     * @param n the number of processes
+     * @throws IOException if a process does not report
+     */
+    public static void rendezvous(ServerSocket server, int n) throws IOException
+    {
+	Socket[] child = new Socket[n];
+	int[] ports = new int[n];
+	try {
+	    for (int j = 0; j < n; j++) {
+		Socket s = server.accept();
+		DataInputStream i = new DataInputStream(s.getInputStream());
+		int k = i.readInt();
+		if (k < 0 || k >= n || child[k] != null) throw new IOException("bad partition index "+k);
+		child[k] = s;
+		ports[k] = i.readInt();
+	    }
+	    for (int k = 0; k < n; k++) {
+		DataOutputStream o = new DataOutputStream(child[k].getOutputStream());
+		for (int p : ports) o.writeInt(p);
+		o.flush();
+	    }
+	} finally {
+	    for (Socket s : child) {
+		if (s != null) s.close();
+	    }
+	}
+    }
+
+    /**
+     * Connects to a peer, retrying while it starts up.
+     * @param addr the peer's address
+     * @return the connected socket
+     * @throws IOException if the peer never comes up
+     */
+    private Socket connect(InetSocketAddress addr) throws IOException
+    {
+	for (int tries = 0; ; tries++) {
+	    try {
+		return new Socket(addr.getAddress(), addr.getPort());
+	    } catch (IOException e) {
+		if (tries >= 200) throw e;
+		try { Thread.sleep(50); } catch (InterruptedException ie) { throw e; }
+	    }
+	}
+    }
+
+    /**
+     * Gets the index of this process.
+     * @return int
+     */
+    public int getIndex()
+    {
+	return self;
+    }
+
+    /**
+     * Gets the process that owns a router.
+     * @param routerid the router id
+     * @return the index of the owning process
+     */
+    public int getOwner(int routerid)
+    {
+	return (int)((long)addresses.indexOf(routerid) * count / addresses.size());
+    }
+
+    /**
+     * Is the router run by this process.
+     * @param routerid the router id
+     * @return whether this process owns the router
+     */
+    public boolean isLocal(int routerid)
+    {
+	return getOwner(routerid) == self;
+    }
+
+    /**
+     * Is any end of the link attached to a router run by this process.
+     * @param l the link
+     * @return whether the link has a local end
+     */
+    public boolean isLocal(Link l)
+    {
+	return isLocal(l.getRouter(0)) || isLocal(l.getRouter(1));
+    }
+
+    /**
+     * Ships the in bound queues of remote link ends and the counters of
+     * the local ends to the owners of the remote ends, and delivers what
+     * other processes shipped here. Must be called
+     * once per time step by every process, after the links have moved
+     * their packets.
+     * @param links every link in the simulation, in config order
+     * @throws IOException if a peer fails
+     */
+    public void exchange(Link[] links) throws IOException
+    {
+	Vector<Vector<Object>> batch = new Vector<Vector<Object>>(count);
+	for (int i = 0; i < count; i++) {
+	    batch.addElement(new Vector<Object>());
+	}
+	for (int i = 0; i < links.length; i++) {
+	    for (int end = 0; end < 2; end++) {
+		int owner = getOwner(links[i].getRouter(end));
+		if (owner == self || !isLocal(links[i].getRouter(1 - end))) continue;
+		for (Packet p : links[i].drainInbound(end)) {
+		    batch.elementAt(owner).addElement(new int[] { i, end });
+		    batch.elementAt(owner).addElement(p);
+		}
+		// The owner's copy of the link only counts its own end.
+		batch.elementAt(owner).addElement(new int[] { i, 1 - end });
+		batch.elementAt(owner).addElement(links[i].getCounters(1 - end));
+	    }
+	}
+
+	// Write on the pool so two peers sending large batches to each
+	// other cannot both block on full socket buffers.
+	Vector<Future<Object>> sent = new Vector<Future<Object>>(count);
+	sent.setSize(count);
+	for (int i = 0; i < count; i++) {
+	    if (i == self) continue;
+	    final ObjectOutputStream o = out[i];
+	    final Vector<Object> b = batch.elementAt(i);
+	    sent.setElementAt(writers.submit(() -> {
+		    o.writeObject(b);
+		    o.reset();
+		    o.flush();
+		    return null;
+		}), i);
+	}
+	for (int i = 0; i < count; i++) {
+	    if (i == self) continue;
+	    Vector<?> b;
+	    try {
+		b = (Vector<?>)in[i].readObject();
+	    } catch (ClassNotFoundException e) {
+		throw new IOException(e);
+	    }
+	    for (int j = 0; j < b.size(); j += 2) {
+		int[] where = (int[])b.elementAt(j);
+		Object x = b.elementAt(j + 1);
+		if (x instanceof Packet) links[where[0]].deliverInbound(where[1], (Packet)x);
+		else links[where[0]].setCounters(where[1], (int[])x);
+	    }
+	}
+	for (int i = 0; i < count; i++) {
+	    if (i == self) continue;
+	    try {
+		sent.elementAt(i).get();
+	    } catch (Exception e) {
+		throw new IOException(e);
+	    }
+	}
+    }
+
+    /**
+     * Closes the connections to the other processes.
+     */
+    public void close()
+    {
+	writers.shutdown();
+	for (int i = 0; i < count; i++) {
+	    if (i == self) continue;
+	    try {
+		sockets[i].close();
+	    } catch (IOException e) {
+	    }
+	}
+    }
+}
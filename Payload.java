@@ -1,10 +1,13 @@
+import java.io.Serializable;
 import java.util.Vector;
 /**
  * The <code>Payload</code> class that represents the payload of a packet.
  */
-public class Payload {
+public class Payload implements Serializable {
     
+    private static final long serialVersionUID = 1L;
     private Vector<Object> data;
+    private long digest = 0;
     
     /**
      * The <code>Payload</code> constructor.
@@ -23,6 +26,64 @@ public class Payload {
 	data.addElement(o);
     }
 
+    /**
+     * Returns the number of entries in the payload.
+     * @return int
+     */
+    public int size()
+    {
+	return data.size();
+    }
+
+    /**
+     * Returns the entry at index i.
+     * @param i index
+     * @return Object
+     */
+    public Object getEntry(int i)
+    {
+	return data.elementAt(i);
+    }
+
+    /**
+     * Replaces the entry at index i, or appends if i is the size.
+     * @param i index
+     * @param o object to send
+     */
+    public void setEntry(int i, Object o)
+    {
+	if (i == data.size()) data.addElement(o);
+	else data.setElementAt(o, i);
+    }
+
+    /**
+     * Drops every entry from index n onwards, keeping the capacity.
+     * @param n new number of entries
+     */
+    public void truncate(int n)
+    {
+	data.setSize(n);
+    }
+
+    /**
+     * Sets a hash of the payload's content that a receiver can compare
+     * with the last payload from the same sender, 0 for none.
+     * @param d the digest
+     */
+    public void setDigest(long d)
+    {
+	digest = d;
+    }
+
+    /**
+     * Returns the digest set by the sender, 0 if it did not set one.
+     * @return long
+     */
+    public long getDigest()
+    {
+	return digest;
+    }
+
     /**
      * Returns a vector of the data in the payload.
      * @return Vector data in the payload.
@@ -0,0 +1,179 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The <code>RouteChange</code> class describes one change to a routing
+ * table entry, and holds the listeners that are told about them. Routing
+ * algorithms report changes through <code>Router.routeChanged</code>,
+ * which queues them on a lock free queue so that routers may run on
+ * several threads, and the simulator hands them to the listeners at the
+ * end of each time step with <code>dispatch</code>. Nothing is queued
+ * while there are no listeners.
+ * <p>
+ * A new route has the old interface <code>UNKNOWN</code> and the old
+ * metric <code>INFINITY</code> of its algorithm, a removed route has
+ * them as its new interface and metric. Destinations are router ids, or
+ * -1 - area for routes to a whole area.
+ */
+public class RouteChange
+{
+    /**
+     * Interface of a route that does not exist.
+     */
+    public static int UNKNOWN = -2;
+
+    /**
+     * Whether any listener is registered, checked before building a change.
+     */
+    public static volatile boolean on = false;
+
+    private static CopyOnWriteArrayList<RouteListener> listeners = new CopyOnWriteArrayList<RouteListener>();
+    private static ConcurrentLinkedQueue<RouteChange> pending = new ConcurrentLinkedQueue<RouteChange>();
+
+    private int router;
+    private int destination;
+    private int oldInterface;
+    private int newInterface;
+    private int oldMetric;
+    private int newMetric;
+    private int time;
+
+    /**
+     * <code>RouteChange</code> constructor.
+     * @param r router id
+     * @param d destination
+     * @param oi old interface
+     * @param ni new interface
+     * @param om old metric
+     * @param nm new metric
+     * @param t time of the change
+     */
+    public RouteChange(int r, int d, int oi, int ni, int om, int nm, int t)
+    {
+	router = r;
+	destination = d;
+	oldInterface = oi;
+	newInterface = ni;
+	oldMetric = om;
+	newMetric = nm;
+	time = t;
+    }
+
+    /**
+     * Registers a listener.
+     * @param l the listener
+     */
+    public static void addListener(RouteListener l)
+    {
+	listeners.add(l);
+	on = true;
+    }
+
+    /**
+     * Unregisters a listener.
+     * @param l the listener
+     */
+    public static void removeListener(RouteListener l)
+    {
+	listeners.remove(l);
+	on = !listeners.isEmpty();
+    }
+
+    /**
+     * Queues a change for the listeners, safe to call from any thread.
+     * @param c the change
+     */
+    public static void publish(RouteChange c)
+    {
+	pending.offer(c);
+    }
+
+    /**
+     * Hands every queued change to the listeners.
+     */
+    public static void dispatch()
+    {
+	RouteChange c;
+	while ((c = pending.poll()) != null) {
+	    for (RouteListener l : listeners) {
+		l.routeChanged(c);
+	    }
+	}
+    }
+
+    /**
+     * Gets the id of the router whose table changed.
+     * @return int
+     */
+    public int getRouter()
+    {
+	return router;
+    }
+
+    /**
+     * Gets the destination of the route.
+     * @return router id, or -1 - area
+     */
+    public int getDestination()
+    {
+	return destination;
+    }
+
+    /**
+     * Gets the interface before the change.
+     * @return int
+     */
+    public int getOldInterface()
+    {
+	return oldInterface;
+    }
+
+    /**
+     * Gets the interface after the change.
+     * @return int
+     */
+    public int getNewInterface()
+    {
+	return newInterface;
+    }
+
+    /**
+     * Gets the metric before the change.
+     * @return int
+     */
+    public int getOldMetric()
+    {
+	return oldMetric;
+    }
+
+    /**
+     * Gets the metric after the change.
+     * @return int
+     */
+    public int getNewMetric()
+    {
+	return newMetric;
+    }
+
+    /**
+     * Gets the time step of the change.
+     * @return int
+     */
+    public int getTime()
+    {
+	return time;
+    }
+
+    /**
+     * Generic to string method, in the format
+     * <code>Route &lt;time&gt; &lt;router&gt; d &lt;destination&gt; i &lt;old&gt;-&gt;&lt;new&gt; m &lt;old&gt;-&gt;&lt;new&gt;</code>,
+     * with areas as <code>a &lt;area&gt;</code>.
+     * @return string representation
+     */
+    public String toString()
+    {
+	String d = (destination >= 0) ? "d "+destination : "a "+(-1 - destination);
+	return "Route "+time+" "+router+" "+d+" i "+oldInterface+"->"+newInterface
+	    +" m "+oldMetric+"->"+newMetric;
+    }
+}
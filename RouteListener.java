@@ -0,0 +1,15 @@
+/**
+ * The <code>RouteListener</code> interface is implemented by anything that
+ * wants to follow routing table changes, such as convergence detectors,
+ * forwarding caches or tracers, without scanning the tables. Listeners
+ * are registered with <code>RouteChange.addListener</code> and are called
+ * on the simulator thread at the end of every time step, once for each
+ * change made during that step, in the order the changes were made.
+ */
+public interface RouteListener {
+    /**
+     * Called for a change of a route's interface or metric.
+     * @param c the change
+     */
+    public void routeChanged(RouteChange c);
+}
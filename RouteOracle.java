@@ -0,0 +1,294 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The <code>RouteOracle</code> class checks converged distance vector
+ * tables against shortest paths computed centrally from the link weights
+ * and states. It is run by the <code>checkRoutes &lt;time&gt;</code> event
+ * and prints a line like
+ * <code>Oracle &lt;time&gt; : &lt;n&gt; routes, &lt;m&gt; mismatches, matched since &lt;tick&gt;</code>
+ * followed by the first few mismatches.
+ * <p>
+ * For every destination the oracle runs Dijkstra towards it over the up
+ * links, with a link costing the weight of the end it is sent from, as
+ * DV counts it. Destinations are shared out over a fork join pool. As
+ * routes at <code>INFINITY</code> or beyond count as unreachable, the
+ * search keeps a bucket per distance rather than a heap. A router
+ * matches when its metric is the shortest distance and its next hop is
+ * the first link of one of the shortest paths, or when it has no route
+ * to an unreachable destination.
+ * <p>
+ * The oracle follows route changes, so once every table matches it
+ * reports the end of the tick since which they have, the later of the
+ * last route change and the last link state change.
+ */
+public class RouteOracle implements RouteListener
+{
+    private static int INFINITY = DV.INFINITY;
+    // Mismatches printed per check.
+    private static int SHOWN = 10;
+    // Destinations per fork join task.
+    private static int LEAF = 16;
+
+    private int lastChange = 0;
+    private int lastLinkChange = 0;
+
+    // The graph as seen by each router, by index : the router at the far
+    // end of each interface and the weight of our end, -1 if it is down.
+    private int[][] neighbour;
+    private int[][] weight;
+    // For each router, the routers with a link to it and the weights.
+    private int[][] into;
+    private int[][] intoWeight;
+    private Router[] routers;
+    private AddressTable addresses;
+
+    /**
+     * <code>RouteOracle</code> constructor, starts following route changes.
+     */
+    public RouteOracle()
+    {
+	RouteChange.addListener(this);
+    }
+
+    /**
+     * Notes the time of a route change.
+     * @param c the change
+     */
+    public void routeChanged(RouteChange c)
+    {
+	lastChange = Math.max(lastChange, c.getTime());
+    }
+
+    /**
+     * Notes that a link went up or down.
+     * @param now current time
+     */
+    public void linkChanged(int now)
+    {
+	lastLinkChange = now;
+    }
+
+    /**
+     * Checks every router's table and prints the result.
+     * @param r the routers, by index
+     * @param a the address table
+     * @param now current time
+     * @return number of mismatches
+     */
+    public int check(Router[] r, AddressTable a, int now)
+    {
+	routers = r;
+	addresses = a;
+	build();
+	// Routing tables are allocated on first use, not safe to do from
+	// several threads at once.
+	for (Router x : routers) x.getNextHop(x.getId());
+	Result res = ForkJoinPool.commonPool().invoke(new Check(0, routers.length));
+	StringBuilder s = new StringBuilder();
+	s.append("Oracle ").append(now).append(" : ").append(res.routes).append(" routes, ");
+	s.append(res.count).append(" mismatches");
+	if (res.count == 0) s.append(", matched since ").append(Math.max(lastChange, lastLinkChange));
+	s.append('\n');
+	res.trim();
+	for (int k = 0; k < res.n; k++) {
+	    describe(s, (int)(res.keys[k] >>> 32), (int)res.keys[k]);
+	}
+	System.out.print(s);
+	return (int)Math.min(Integer.MAX_VALUE, res.count);
+    }
+
+    // Builds the per interface tables and the reverse graph.
+    private void build()
+    {
+	int n = routers.length;
+	neighbour = new int[n][];
+	weight = new int[n][];
+	int[] degree = new int[n];
+	for (int s = 0; s < n; s++) {
+	    Link[] l = routers[s].getLinks();
+	    neighbour[s] = new int[l.length];
+	    weight[s] = new int[l.length];
+	    for (int i = 0; i < l.length; i++) {
+		int id = routers[s].getId();
+		neighbour[s][i] = addresses.indexOf(l[i].getRouter(0) == id ? l[i].getRouter(1) : l[i].getRouter(0));
+		weight[s][i] = l[i].isUp() ? l[i].getInterfaceWeight(id) : -1;
+		if (weight[s][i] >= 0) degree[neighbour[s][i]]++;
+	    }
+	}
+	into = new int[n][];
+	intoWeight = new int[n][];
+	for (int d = 0; d < n; d++) {
+	    into[d] = new int[degree[d]];
+	    intoWeight[d] = new int[degree[d]];
+	    degree[d] = 0;
+	}
+	for (int s = 0; s < n; s++) {
+	    for (int i = 0; i < neighbour[s].length; i++) {
+		if (weight[s][i] < 0) continue;
+		int d = neighbour[s][i];
+		into[d][degree[d]] = s;
+		intoWeight[d][degree[d]++] = weight[s][i];
+	    }
+	}
+    }
+
+    // Appends a mismatch of router s for destination d.
+    private void describe(StringBuilder s, int src, int d)
+    {
+	Router r = routers[src];
+	int id = addresses.idOf(d);
+	s.append("Mismatch router ").append(r.getId()).append(" d ").append(id);
+	s.append(" i ").append(r.getNextHop(id)).append(" m ").append(r.getMetric(id));
+	int[] dist = new int[routers.length];
+	distances(d, dist, new Buckets());
+	if (dist[src] >= INFINITY) {
+	    s.append(", expected unreachable\n");
+	    return;
+	}
+	s.append(", expected m ").append(dist[src]).append(" via i");
+	for (int i = 0; i < neighbour[src].length; i++) {
+	    if (src != d && onPath(src, i, dist)) s.append(' ').append(i);
+	}
+	if (src == d) s.append(' ').append(DV.LOCAL);
+	s.append('\n');
+    }
+
+    // Is interface i of router s the first link of a shortest path.
+    private boolean onPath(int s, int i, int[] dist)
+    {
+	int w = weight[s][i];
+	return w >= 0 && dist[neighbour[s][i]] < INFINITY && w + dist[neighbour[s][i]] == dist[s];
+    }
+
+    // Shortest distances from every router to d, INFINITY if at least
+    // that far or unreachable. Dial's algorithm, a bucket per distance.
+    private void distances(int d, int[] dist, Buckets b)
+    {
+	Arrays.fill(dist, INFINITY);
+	dist[d] = 0;
+	b.clear();
+	b.add(0, d);
+	for (int k = 0; k < INFINITY; k++) {
+	    // Zero weight links may add to the bucket being walked.
+	    for (int j = 0; j < b.size[k]; j++) {
+		int u = b.items[k][j];
+		if (dist[u] != k) continue;
+		for (int e = 0; e < into[u].length; e++) {
+		    int v = into[u][e];
+		    int nd = k + intoWeight[u][e];
+		    if (nd < dist[v]) {
+			dist[v] = nd;
+			b.add(nd, v);
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * One bucket of routers per distance below <code>INFINITY</code>.
+     */
+    private static class Buckets
+    {
+	int[][] items = new int[INFINITY][16];
+	int[] size = new int[INFINITY];
+
+	void clear() { Arrays.fill(size, 0); }
+
+	void add(int k, int v)
+	{
+	    if (k >= INFINITY) return;
+	    if (size[k] == items[k].length) items[k] = Arrays.copyOf(items[k], 2 * size[k]);
+	    items[k][size[k]++] = v;
+	}
+    }
+
+    /**
+     * Routes checked, mismatches found and the first of them as
+     * router index &lt;&lt; 32 | destination index.
+     */
+    private static class Result
+    {
+	long routes = 0;
+	long count = 0;
+	long[] keys = new long[4 * SHOWN];
+	int n = 0;
+
+	void add(long key)
+	{
+	    count++;
+	    if (n == keys.length) trim();
+	    if (n < keys.length) keys[n++] = key;
+	}
+
+	// Keeps the smallest keys only.
+	void trim()
+	{
+	    Arrays.sort(keys, 0, n);
+	    n = Math.min(n, SHOWN);
+	}
+
+	void merge(Result o)
+	{
+	    routes += o.routes;
+	    long c = count + o.count;
+	    for (int k = 0; k < o.n; k++) add(o.keys[k]);
+	    count = c;
+	}
+    }
+
+    /**
+     * Checks the routes to destinations from..to-1.
+     */
+    private class Check extends RecursiveTask<Result>
+    {
+	private static final long serialVersionUID = 1L;
+
+	private int from;
+	private int to;
+
+	Check(int f, int t)
+	{
+	    from = f;
+	    to = t;
+	}
+
+	protected Result compute()
+	{
+	    if (to - from > LEAF) {
+		int mid = (from + to) >>> 1;
+		Check left = new Check(from, mid);
+		left.fork();
+		Result res = new Check(mid, to).compute();
+		res.merge(left.join());
+		return res;
+	    }
+	    Result res = new Result();
+	    int[] dist = new int[routers.length];
+	    Buckets b = new Buckets();
+	    for (int d = from; d < to; d++) {
+		distances(d, dist, b);
+		int id = addresses.idOf(d);
+		for (int s = 0; s < routers.length; s++) {
+		    res.routes++;
+		    if (!matches(s, d, id, dist)) res.add((long)s << 32 | d);
+		}
+	    }
+	    return res;
+	}
+
+	private boolean matches(int s, int d, int id, int[] dist)
+	{
+	    // One read, so the interface and metric belong to the same route.
+	    long r = routers[s].getRoute(id);
+	    int metric = RouteStore.metricOf(r);
+	    int hop = (r == 0 || metric == INFINITY) ? DV.UNKNOWN : RouteStore.interfaceOf(r);
+	    if (dist[s] >= INFINITY) return hop == DV.UNKNOWN;
+	    if (s == d) return hop == DV.LOCAL;
+	    if (hop < 0 || hop >= neighbour[s].length || !onPath(s, hop, dist)) return false;
+	    return metric == dist[s];
+	}
+    }
+}
@@ -0,0 +1,154 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+
+/**
+ * The <code>RouteSnapshot</code> class handles the binary and diff forms
+ * of <code>dumprt</code>. A binary snapshot file is a sequence of records,
+ * each holding the time, the router id, the number of routes and then a
+ * (destination, interface, metric) triple per route, all as big endian
+ * ints. Negative destinations are areas, encoded as -1 - area. Running
+ * the class from the command line prints a snapshot file in the text
+ * format of <code>showRoutes</code>.
+ */
+public class RouteSnapshot
+{
+    private HashMap<String, DataOutputStream> files = new HashMap<String, DataOutputStream>();
+    // Routes printed by the last diff dump of each router, keyed by router id.
+    private HashMap<Integer, int[]> previous = new HashMap<Integer, int[]>();
+
+    /**
+     * Appends a router's routing table to a snapshot file, opening the
+     * file on first use.
+     * @param file the snapshot file
+     * @param time current time
+     * @param r the router
+     * @throws IOException if the file cannot be written
+     */
+    public void write(String file, int time, Router r) throws IOException
+    {
+	int[] routes = r.getRoutes();
+	if (routes == null) {
+	    System.out.println("Router "+r.getId()+" cannot export its routes");
+	    return;
+	}
+	DataOutputStream out = files.get(file);
+	if (out == null) {
+	    out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+	    files.put(file, out);
+	}
+	out.writeInt(time);
+	out.writeInt(r.getId());
+	out.writeInt(routes.length / 3);
+	for (int i = 0; i < routes.length; i++) {
+	    out.writeInt(routes[i]);
+	}
+    }
+
+    /**
+     * Prints the routes of a router that were added, changed or removed
+     * since the last diff dump of that router. The first diff dump of a
+     * router prints every route.
+     * @param r the router
+     */
+    public void diff(Router r)
+    {
+	int[] routes = r.getRoutes();
+	if (routes == null) {
+	    r.dumpRoutingTable();
+	    return;
+	}
+	int[] old = previous.get(r.getId());
+	HashMap<Integer, Integer> seen = new HashMap<Integer, Integer>();
+	if (old != null) {
+	    for (int i = 0; i < old.length; i += 3) {
+		seen.put(old[i], i);
+	    }
+	}
+	StringBuilder s = new StringBuilder();
+	s.append("Router ").append(r.getId()).append('\n');
+	for (int i = 0; i < routes.length; i += 3) {
+	    Integer j = seen.remove(routes[i]);
+	    if (j != null && old[j+1] == routes[i+1] && old[j+2] == routes[i+2]) continue;
+	    appendRoute(s, routes, i);
+	}
+	for (Integer j : seen.values()) {
+	    appendDestination(s, old[j]);
+	    s.append(" removed\n");
+	}
+	previous.put(r.getId(), routes);
+	System.out.print(s);
+    }
+
+    /**
+     * Flushes and closes every open snapshot file.
+     */
+    public void close()
+    {
+	for (DataOutputStream out : files.values()) {
+	    try {
+		out.close();
+	    } catch (IOException e) {
+		System.out.println("Error closing snapshot : "+e);
+	    }
+	}
+	files.clear();
+    }
+
+    // Appends one route in the showRoutes format.
+    private static void appendRoute(StringBuilder s, int[] routes, int i)
+    {
+	appendDestination(s, routes[i]);
+	s.append(" i ").append(routes[i+1]).append(" m ").append(routes[i+2]).append('\n');
+    }
+
+    private static void appendDestination(StringBuilder s, int d)
+    {
+	if (d >= 0) s.append("d ").append(d);
+	else s.append("a ").append(-1 - d);
+    }
+
+    /**
+     * main function called from the command line with one argument,
+     * the snapshot file to print.
+     * @param args
+     */
+    public static void main(String args[]) throws IOException
+    {
+	if (args.length != 1) {
+	    System.out.println("Usage : java RouteSnapshot <snapshot file>");
+	    System.exit(1);
+	}
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 1 << 16));
+	int last = -1;
+	StringBuilder s = new StringBuilder();
+	try {
+	    while (true) {
+		int time = in.readInt();
+		if (time != last) {
+		    s.append("Time :").append(time).append('\n');
+		    last = time;
+		}
+		s.append("Router ").append(in.readInt()).append('\n');
+		int n = in.readInt();
+		int[] route = new int[3];
+		for (int i = 0; i < n; i++) {
+		    route[0] = in.readInt();
+		    route[1] = in.readInt();
+		    route[2] = in.readInt();
+		    appendRoute(s, route, 0);
+		}
+		System.out.print(s);
+		s.setLength(0);
+	    }
+	} catch (EOFException e) {
+	}
+	in.close();
+    }
+}
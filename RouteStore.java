@@ -0,0 +1,345 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The <code>RouteStore</code> class holds the (interface, metric, time)
+ * fields of a routing table, indexed by the destination's dense index.
+ * It is the storage behind <code>DV</code>. The store kind is chosen once
+ * per simulation with the <code>store</code> config line :
+ * <ul>
+ * <li><code>store heap</code> keeps an int array per router, the default.</li>
+ * <li><code>store direct</code> keeps the tables in direct buffers outside
+ * the Java heap, so the garbage collector never traces them.</li>
+ * <li><code>store mapped &lt;file&gt;</code> keeps the tables in a memory
+ * mapped file, so they may be larger than RAM.</li>
+ * <li><code>store atomic</code> keeps the interface and metric of each
+ * route packed in one long of an atomic array, so other threads may read
+ * routes with <code>getRoute</code> while the simulation runs and always
+ * see an interface and metric that were set together.</li>
+ * </ul>
+ * Off heap tables are carved out of shared slabs and live until the
+ * simulation exits. The first slab is 1MB and each new one is twice the
+ * last, up to 1GB, so small simulations only reserve what they use.
+ * Interfaces are stored offset by two so that zeroed memory reads as an
+ * empty table.
+ */
+public abstract class RouteStore
+{
+    /**
+     * Tables on the Java heap.
+     */
+    public static int HEAP = 0;
+    /**
+     * Tables in direct byte buffers.
+     */
+    public static int DIRECT = 1;
+    /**
+     * Tables in a memory mapped file.
+     */
+    public static int MAPPED = 2;
+    /**
+     * Tables on the heap whose routes are read and written atomically.
+     */
+    public static int ATOMIC = 3;
+
+    // Bytes per destination, interface + 2, metric and time.
+    private static int ENTRY = 12;
+    // Size of the first slab and the largest, new slabs double in size.
+    private static int FIRST_SLAB = 1 << 20;
+    private static int MAX_SLAB = 1 << 30;
+
+    private static int kind = HEAP;
+    private static FileChannel channel;
+    private static long mapped = 0;
+    private static ByteBuffer slab;
+    private static int nextSlab = FIRST_SLAB;
+
+    /**
+     * Chooses where tables allocated from now on are kept.
+     * @param k <code>HEAP</code>, <code>DIRECT</code> or <code>MAPPED</code>
+     * @param file the file to map, only used for <code>MAPPED</code>
+     * @throws IOException if the file cannot be opened
+     */
+    public static synchronized void configure(int k, String file) throws IOException
+    {
+	kind = k;
+	slab = null;
+	nextSlab = FIRST_SLAB;
+	if (k == MAPPED) {
+	    RandomAccessFile f = new RandomAccessFile(file, "rw");
+	    f.setLength(0);
+	    channel = f.getChannel();
+	    mapped = 0;
+	}
+    }
+
+    /**
+     * Goes back to heap tables, letting go of the slab and any mapped
+     * file. Tables already allocated stay usable.
+     */
+    public static synchronized void reset()
+    {
+	kind = HEAP;
+	slab = null;
+	nextSlab = FIRST_SLAB;
+	mapped = 0;
+	if (channel == null) return;
+	try {
+	    // Mappings stay valid once the channel is closed.
+	    channel.close();
+	} catch (IOException e) {
+	}
+	channel = null;
+    }
+
+    /**
+     * Allocates an empty table for n destinations of the configured kind.
+     * @param n number of destinations
+     * @return the table
+     */
+    public static synchronized RouteStore allocate(int n)
+    {
+	if (kind == HEAP) return new HeapStore(n);
+	if (kind == ATOMIC) return new AtomicStore(n);
+	int len = n * ENTRY;
+	try {
+	    if (slab == null || slab.remaining() < len) {
+		int size = Math.max(nextSlab, len);
+		nextSlab = Math.min(MAX_SLAB, 2 * nextSlab);
+		if (kind == DIRECT) {
+		    slab = ByteBuffer.allocateDirect(size);
+		}
+		else {
+		    slab = channel.map(FileChannel.MapMode.READ_WRITE, mapped, size);
+		    mapped += size;
+		}
+	    }
+	} catch (IOException e) {
+	    System.out.println("Cannot map routing table store : "+e);
+	    System.exit(1);
+	}
+	int start = slab.position();
+	slab.limit(start + len);
+	ByteBuffer region = slab.slice().order(ByteOrder.nativeOrder());
+	slab.limit(slab.capacity());
+	slab.position(start + len);
+	return new BufferStore(region, n);
+    }
+
+    /**
+     * Gets the number of destinations the table can hold.
+     * @return int
+     */
+    public abstract int capacity();
+
+    /**
+     * Is there an entry for destination d.
+     * @param d destination index
+     * @return boolean
+     */
+    public abstract boolean has(int d);
+
+    /**
+     * Gets the interface of the entry for destination d.
+     * @param d destination index
+     * @return interface, -1 for local
+     */
+    public abstract int getInterface(int d);
+
+    /**
+     * Gets the metric of the entry for destination d.
+     * @param d destination index
+     * @return metric
+     */
+    public abstract int getMetric(int d);
+
+    /**
+     * Gets the time of the entry for destination d.
+     * @param d destination index
+     * @return time
+     */
+    public abstract int getTime(int d);
+
+    /**
+     * Gets the interface and metric of the entry for destination d packed
+     * into one long, 0 if there is none. Only <code>ATOMIC</code> tables
+     * read both at once, see <code>interfaceOf</code> and
+     * <code>metricOf</code>.
+     * @param d destination index
+     * @return the packed route
+     */
+    public long getRoute(int d)
+    {
+	return has(d) ? pack(getInterface(d), getMetric(d)) : 0;
+    }
+
+    /**
+     * Packs an interface and metric the way <code>getRoute</code> does.
+     * @param i interface, -1 for local
+     * @param m metric
+     * @return the packed route
+     */
+    public static long pack(int i, int m)
+    {
+	return ((long)(i + 2) << 32) | (m & 0xffffffffL);
+    }
+
+    /**
+     * Gets the interface of a packed route.
+     * @param r the route
+     * @return interface, -1 for local
+     */
+    public static int interfaceOf(long r)
+    {
+	return (int)(r >>> 32) - 2;
+    }
+
+    /**
+     * Gets the metric of a packed route.
+     * @param r the route
+     * @return metric
+     */
+    public static int metricOf(long r)
+    {
+	return (int)r;
+    }
+
+    /**
+     * Sets the interface of the entry for destination d, creating it.
+     * @param d destination index
+     * @param i interface, -1 for local
+     */
+    public abstract void setInterface(int d, int i);
+
+    /**
+     * Sets the metric of the entry for destination d.
+     * @param d destination index
+     * @param m metric
+     */
+    public abstract void setMetric(int d, int m);
+
+    /**
+     * Sets the time of the entry for destination d.
+     * @param d destination index
+     * @param t time
+     */
+    public abstract void setTime(int d, int t);
+
+    /**
+     * Removes the entry for destination d.
+     * @param d destination index
+     */
+    public abstract void remove(int d);
+
+    /**
+     * Sets the interface and metric of the entry for destination d,
+     * creating it. <code>ATOMIC</code> tables publish both at once.
+     * @param d destination index
+     * @param i interface, -1 for local
+     * @param m metric
+     */
+    public void setRoute(int d, int i, int m)
+    {
+	setInterface(d, i);
+	setMetric(d, m);
+    }
+
+    /**
+     * Sets every field of the entry for destination d, creating it.
+     * @param d destination index
+     * @param i interface, -1 for local
+     * @param m metric
+     * @param t time
+     */
+    public void set(int d, int i, int m, int t)
+    {
+	setTime(d, t);
+	setRoute(d, i, m);
+    }
+
+    /**
+     * Copies every entry of this table into another, at least as large.
+     * @param to the destination table
+     */
+    public void copyTo(RouteStore to)
+    {
+	for (int d = 0; d < capacity(); d++) {
+	    if (has(d)) to.set(d, getInterface(d), getMetric(d), getTime(d));
+	}
+    }
+
+    /**
+     * Table stored in an int array on the heap.
+     */
+    static class HeapStore extends RouteStore
+    {
+	private int[] v;
+
+	HeapStore(int n) { v = new int[3 * n]; }
+
+	public int capacity() { return v.length / 3; }
+	public boolean has(int d) { return v[3 * d] != 0; }
+	public int getInterface(int d) { return v[3 * d] - 2; }
+	public int getMetric(int d) { return v[3 * d + 1]; }
+	public int getTime(int d) { return v[3 * d + 2]; }
+	public void setInterface(int d, int i) { v[3 * d] = i + 2; }
+	public void setMetric(int d, int m) { v[3 * d + 1] = m; }
+	public void setTime(int d, int t) { v[3 * d + 2] = t; }
+	public void remove(int d) { v[3 * d] = 0; }
+    }
+
+    /**
+     * Table whose routes are packed longs in an atomic array. Only the
+     * owning router writes, with release stores, so any thread may read.
+     * The time is only read by the owner and kept apart.
+     */
+    static class AtomicStore extends RouteStore
+    {
+	private AtomicLongArray r;
+	private int[] t;
+
+	AtomicStore(int n) { r = new AtomicLongArray(n); t = new int[n]; }
+
+	public int capacity() { return t.length; }
+	public boolean has(int d) { return r.get(d) != 0; }
+	public int getInterface(int d) { return interfaceOf(r.get(d)); }
+	public int getMetric(int d) { return metricOf(r.get(d)); }
+	public int getTime(int d) { return t[d]; }
+	public long getRoute(int d) { return r.get(d); }
+	public void setInterface(int d, int i) { r.lazySet(d, pack(i, metricOf(r.get(d)))); }
+	// Entries are created with an interface, a metric alone is dropped.
+	public void setMetric(int d, int m)
+	{
+	    long v = r.get(d);
+	    if (v != 0) r.lazySet(d, pack(interfaceOf(v), m));
+	}
+	public void setRoute(int d, int i, int m) { r.lazySet(d, pack(i, m)); }
+	public void setTime(int d, int time) { t[d] = time; }
+	public void remove(int d) { r.lazySet(d, 0); }
+    }
+
+    /**
+     * Table stored in a direct or memory mapped byte buffer.
+     */
+    static class BufferStore extends RouteStore
+    {
+	private ByteBuffer b;
+	private int n;
+
+	BufferStore(ByteBuffer buf, int size) { b = buf; n = size; }
+
+	public int capacity() { return n; }
+	public boolean has(int d) { return b.getInt(ENTRY * d) != 0; }
+	public int getInterface(int d) { return b.getInt(ENTRY * d) - 2; }
+	public int getMetric(int d) { return b.getInt(ENTRY * d + 4); }
+	public int getTime(int d) { return b.getInt(ENTRY * d + 8); }
+	public void setInterface(int d, int i) { b.putInt(ENTRY * d, i + 2); }
+	public void setMetric(int d, int m) { b.putInt(ENTRY * d + 4, m); }
+	public void setTime(int d, int t) { b.putInt(ENTRY * d + 8, t); }
+	public void remove(int d) { b.putInt(ENTRY * d, 0); }
+    }
+}
@@ -1,4 +1,4 @@
-import java.lang.Integer;
+import java.util.Random;
 
 /**
  * The <code>Router</code> class represents a router. Each Router
@@ -9,21 +9,47 @@ import java.lang.Integer;
 public class Router 
 {
     private int id;
-    private Integer current_time;
+    private int index;
+    private AddressTable addresses;
+    private int current_time;
+    private Object time_lock = new Object();
+    private PacketPool pool;
     private int num_interfaces;
     private String classname;
     private Link[] link;
     private RoutingAlgorithm ralg;
     private int update_interval = 1;
-    private int[] counter = new int[4];
+    private int[] counter = new int[6];
     
     private int SENT = 0;
     private int RECV = 1;
     private int DROP = 2;
     private int FORW = 3;
+    // Routing traffic : control packets sent and routing entries received.
+    private int CTRL = 4;
+    private int ENTRIES = 5;
     
     private boolean preverse = false;
     private boolean expire = false;
+
+    // Jittered updates, off while jitter is -1. next_update is the time
+    // of the next routing update, drawn from rng after each one.
+    private int jitter = -1;
+    private int next_update;
+    private Random rng;
+
+    // Adaptive updates, off while adaptive_max is -1. interval grows from
+    // update_interval up to adaptive_max while the table stays the same
+    // between updates, and drops back once a route or an interface
+    // changes. sent_version is the routing algorithm's version at the
+    // last update, was_up the interface states last seen.
+    private int adaptive_max = -1;
+    private int interval;
+    private int last_update = 0;
+    private long sent_version = -1;
+    private boolean[] was_up;
+    private int updates_sent = 0;
+    private int fixed_updates = 0;
     
     /**
      * <code>Router</code> constructor takes the router id, the number of
@@ -37,25 +63,49 @@ public class Router
      * @param u the update interval in seconds
      * @param pr if split horizon with poison reverse is enabled or not.
      * @param e if entry expiry is enabled or not.
+     * @param a the address table, which must already contain i.
+     */
+    public Router(int i, int n, String c, int u, boolean pr, boolean e, AddressTable a) {
+	this(i, n, c, load(c), u, pr, e, a);
+	System.out.println("Created "+this);
+    }
+
+    /**
+     * <code>Router</code> constructor taking the routing algorithm object
+     * ready made, and printing nothing, for loading large topologies.
+     * @param i router id
+     * @param n number of interfaces
+     * @param c class name of the routing algorithm
+     * @param alg a new instance of that class
+     * @param u the update interval in seconds
+     * @param pr if split horizon with poison reverse is enabled or not.
+     * @param e if entry expiry is enabled or not.
+     * @param a the address table, which must already contain i.
      */
-    public Router(int i, int n, String c, int u, boolean pr, boolean e) {
+    Router(int i, int n, String c, RoutingAlgorithm alg, int u, boolean pr, boolean e, AddressTable a) {
 	id = i;
+	addresses = a;
+	index = a.indexOf(i);
 	num_interfaces = n;
-	current_time = new Integer(0);
+	current_time = 0;
+	pool = new PacketPool(4 * n);
 	classname = c;
     update_interval = u;
+    interval = u;
     preverse = pr;
     expire = e;
         
 	link = new Link[n];
 
+	ralg = alg;
 	try {
-	    ralg = (RoutingAlgorithm)(Class.forName(classname)).newInstance();
-	    ralg.setRouterObject(this);
-        ralg.setUpdateInterval(update_interval);
-        ralg.setAllowPReverse(preverse);
-        ralg.setAllowExpire(expire);
-	    ralg.initalise();
+	    if (ralg != null) {
+		ralg.setRouterObject(this);
+		ralg.setUpdateInterval(update_interval);
+		ralg.setAllowPReverse(preverse);
+		ralg.setAllowExpire(expire);
+		ralg.initalise();
+	    }
 	} catch (Exception exp) {
 	    exp.printStackTrace();
 	}
@@ -64,8 +114,18 @@ public class Router
         counter[RECV] = 0;
 	counter[DROP] = 0;
 	counter[FORW] = 0;
-	
-	System.out.println("Created "+this);
+	counter[CTRL] = 0;
+	counter[ENTRIES] = 0;
+    }
+
+    // Creates the routing algorithm, or prints why it cannot.
+    private static RoutingAlgorithm load(String c) {
+	try {
+	    return (RoutingAlgorithm)(Class.forName(c)).newInstance();
+	} catch (Exception exp) {
+	    exp.printStackTrace();
+	    return null;
+	}
     }
     
     /**
@@ -74,12 +134,22 @@ public class Router
      * @param l the link to attach.
      */
     public void addLinks(Link l)
+    {
+	System.out.println("Adding link "+l);
+	attach(l);
+    }
+
+    /**
+     * Attaches a link to the interface it names at our end, printing
+     * nothing.
+     * @param l the link
+     */
+    void attach(Link l)
     {
 	int i0 = l.getInterface(0);
 	int r0 = l.getRouter(0);
 	int i1 = l.getInterface(1);	
 	int r1 = l.getRouter(1);
-	System.out.println("Adding link "+l);
 	if (r0 == id) {
 	    link[i0] = l;
 	}
@@ -116,6 +186,35 @@ public class Router
 	return id;
     }
     
+    /**
+     * Gets the router's dense index, 0..n-1 in the order the routers were
+     * configured.
+     * @return int
+     */
+    public int getIndex()
+    {
+	return index;
+    }
+
+    /**
+     * Gets the address table mapping router ids to dense indexes.
+     * @return AddressTable
+     */
+    public AddressTable getAddressTable()
+    {
+	return addresses;
+    }
+
+    /**
+     * Gets the router's pool of reusable routing packets, see
+     * <code>PacketPool</code> for the ownership rules.
+     * @return PacketPool
+     */
+    public PacketPool getPacketPool()
+    {
+	return pool;
+    }
+
     /**
      * Sends a packet, this method just calls the more complex send method
      * below with an arguement -3 for the interface signifying that the 
@@ -134,7 +233,8 @@ public class Router
      * routing table. If the interface is not known in the routing table
      * -2 is returned and the packet is dropped. Each packet has a time to 
      * live specified which is used to drop packets if there are routing
-     * loops. If the time to live reaches 0 the packet is dropped.
+     * loops. If the time to live reaches 0 the packet is dropped. Packets
+     * routed onto a link whose out bound queue is full are also dropped.
      * @param p the packet to send
      * @param iface the interface to send it on
      */
@@ -148,7 +248,12 @@ public class Router
 
 	if (iface != -3) {
 	    //System.out.println("-3");
-	    link[iface].enqueuePackets(id,p);
+	    if (!link[iface].enqueuePackets(id,p)) {
+		// Dropped by the queue's policy, counted by the link. A
+		// routing packet goes back to the pool.
+		System.out.println("Dropping packet "+p);
+		pool.release(p);
+	    }
 	    return;
 	}
 	int i = ralg.getNextHop(p.getDestination());
@@ -169,10 +274,15 @@ public class Router
 	else
 	    {
 		p.decrement_ttl();
-		System.out.println("Forwarded packet "+p);
-		link[i].enqueuePackets(id,p);
-		if (p.getSource() != id) {
-		    counter[FORW]++;
+		if (!link[i].enqueuePackets(id,p)) {
+		    // Dropped by the queue's policy, counted by the link.
+		    System.out.println("Dropping packet "+p);
+		}
+		else {
+		    System.out.println("Forwarded packet "+p);
+		    if (p.getSource() != id) {
+			counter[FORW]++;
+		    }
 		}
 	    }
     }
@@ -220,7 +330,8 @@ public class Router
      * Loop through all the interfaces checking to see if there is 
      * a packet to recieve and process it. If it is destined for us
      * print a message. If it is a broadcast packet pass it to the 
-     * routing algorithm to decode, we only broadcast routing packets.
+     * routing algorithm to decode, we only broadcast routing packets,
+     * and then return it to the packet pool.
      * Otherwise we forward the packet.
      */
     private void process_packets()
@@ -233,7 +344,7 @@ public class Router
 		    counter[RECV]++;
 		}
 		else if (p.getDestination() == Packet.BROADCAST) {
-		    ralg.processRoutingPacket(p,i);
+		    processControl(p,i);
 		    counter[RECV]++;
 		}
 		else {
@@ -243,14 +354,28 @@ public class Router
 	}
     }
 
+    /**
+     * Passes a control packet to the routing algorithm and then returns
+     * it to the packet pool.
+     * @param p the packet
+     * @param iface the interface it came in on
+     */
+    private void processControl(Packet p, int iface)
+    {
+	if (Metrics.on) Metrics.countEntries(p.getPayload().size());
+	counter[ENTRIES] += p.getPayload().size();
+	ralg.processRoutingPacket(p,iface);
+	pool.release(p);
+    }
+
     /**
      * Sets the current simulation time step
      * @param time current time step
      */
     public void setTimeStep(int time)
     {
-	synchronized(current_time) {
-	    current_time = new Integer(time);
+	synchronized(time_lock) {
+	    current_time = time;
 	}
     }
 
@@ -260,8 +385,88 @@ public class Router
      */
     public int getCurrentTime()
     {
-	synchronized(current_time) {
-	    return current_time.intValue();
+	synchronized(time_lock) {
+	    return current_time;
+	}
+    }
+
+    /**
+     * Desynchronises this router's routing updates. The first update is
+     * at a random time within the first update interval, and each later
+     * update is one interval after the previous one, plus or minus a
+     * random jitter of at most j time steps. The draws are seeded from
+     * seed and the router id, so runs are reproducible.
+     * @param j most time steps an update is moved by, less than the
+     * update interval
+     * @param seed random seed shared by the simulation
+     */
+    public void setUpdateJitter(int j, long seed)
+    {
+	jitter = j;
+	rng = new Random(seed ^ (id * 0x9E3779B97F4A7C15L));
+	next_update = 1 + rng.nextInt(update_interval);
+    }
+
+    /**
+     * Adapts the interval between this router's routing updates to the
+     * stability of its table. While the table is unchanged from one
+     * update to the next the interval doubles, up to max, and as soon as
+     * a route or an interface changes it drops back to the update
+     * interval, the next update coming at most one update interval after
+     * the last. Routes expire on the timers of the longest interval, so
+     * neighbours should share the same max. Needs a routing algorithm
+     * that reports <code>getVersion</code>, others keep the update
+     * interval.
+     * @param max longest interval between updates, at least the update
+     * interval
+     */
+    public void setAdaptiveUpdates(int max)
+    {
+	adaptive_max = max;
+	was_up = new boolean[num_interfaces];
+	if (jitter < 0) next_update = update_interval;
+	ralg.setUpdateInterval(max);
+    }
+
+    /**
+     * Returns the updates sent in adaptive mode and those a fixed update
+     * interval would have sent, or null if the updates are not adaptive.
+     * @return int[]
+     */
+    public int[] getUpdateCounts()
+    {
+	if (adaptive_max < 0) return null;
+	return new int[] { updates_sent, fixed_updates };
+    }
+
+    /**
+     * Is a routing update due this time step, every
+     * <code>update_interval</code> time steps unless the updates are
+     * jittered or adaptive. Routing algorithms call this before
+     * generating a packet.
+     * @return boolean
+     */
+    public boolean isUpdateDue()
+    {
+	if (jitter < 0 && adaptive_max < 0) return getCurrentTime() % update_interval == 0;
+	return getCurrentTime() >= next_update;
+    }
+
+    // Drops back to the update interval if a route or an interface
+    // changed since the last update, so the news goes out promptly.
+    private void adapt()
+    {
+	boolean changed = ralg.getVersion() != sent_version;
+	for (int i = 0; i<link.length; i++) {
+	    boolean up = link[i] != null && link[i].isUp();
+	    if (up != was_up[i]) {
+		was_up[i] = up;
+		changed = true;
+	    }
+	}
+	if (changed && interval > update_interval) {
+	    interval = update_interval;
+	    next_update = Math.min(next_update, last_update + update_interval);
 	}
     }
 
@@ -273,13 +478,30 @@ public class Router
     private void sendRoutingTable()
     {
 	Packet p;
+	if (adaptive_max >= 0) adapt();
 	for (int i = 0; i<link.length; i++)
 	    {
 		p = ralg.generateRoutingPacket(i);
 		if (p != null ) { 
+		    counter[CTRL]++;
 		    send(p,i);
 		}
 	    }		
+	if (adaptive_max >= 0) {
+	    if (getCurrentTime() % update_interval == 0) fixed_updates++;
+	    if (isUpdateDue()) {
+		// Back off only while the table is the same as at the last update.
+		long v = ralg.getVersion();
+		interval = (v >= 0 && v == sent_version) ? Math.min(2 * interval, adaptive_max) : update_interval;
+		sent_version = v;
+		last_update = getCurrentTime();
+		updates_sent++;
+	    }
+	}
+	if ((jitter >= 0 || adaptive_max >= 0) && isUpdateDue()) {
+	    int j = (jitter <= 0) ? 0 : rng.nextInt(2 * jitter + 1) - jitter;
+	    next_update = getCurrentTime() + interval + j;
+	}
     }
 
     /**
@@ -290,9 +512,19 @@ public class Router
      */
     public void go()
     {
+	if (!Metrics.on) {
+	    process_packets();
+	    ralg.tidyTable();
+	    sendRoutingTable();
+	    return;
+	}
+	long t = System.nanoTime();
 	process_packets();
+	t = Metrics.time(Metrics.ROUTER_PACKETS, t);
 	ralg.tidyTable();
+	t = Metrics.time(Metrics.TIDY, t);
 	sendRoutingTable();
+	Metrics.time(Metrics.SEND_TABLE, t);
     }
     /**
      * Dump the routing table to stdout
@@ -301,7 +533,86 @@ public class Router
     {
 	ralg.showRoutes();
     }
+
+    /**
+     * Looks up the interface the routing table sends a destination to.
+     * @param destination the destination address
+     * @return interface, -1 for local, -2 for unknown
+     */
+    public int getNextHop(int destination)
+    {
+	return ralg.getNextHop(destination);
+    }
+
+    /**
+     * Looks up the metric of the route to a destination.
+     * @param destination the destination address
+     * @return the metric, or -1 if there is no route
+     */
+    public int getMetric(int destination)
+    {
+	return ralg.getMetric(destination);
+    }
+
+    /**
+     * Looks up the interface and metric of the route to a destination at
+     * once, packed as <code>RouteStore.getRoute</code> does. Safe to call
+     * from other threads while the simulation runs if the routing
+     * algorithm keeps an <code>atomic</code> store.
+     * @param destination the destination address
+     * @return the packed route, or 0 if there is no route
+     */
+    public long getRoute(int destination)
+    {
+	return ralg.getRoute(destination);
+    }
+
+    /**
+     * Returns the routing table as packed (destination, interface, metric)
+     * triples, or null if the routing algorithm cannot export it.
+     * @return int[]
+     */
+    public int[] getRoutes()
+    {
+	return ralg.getRoutes();
+    }
     
+    /**
+     * Reports a change to a route of this router's table to the route
+     * listeners. Routing algorithms should check <code>RouteChange.on</code>
+     * first so that nothing is built while nobody listens.
+     * @param destination router id, or -1 - area
+     * @param oldIface interface before the change
+     * @param newIface interface after the change
+     * @param oldMetric metric before the change
+     * @param newMetric metric after the change
+     */
+    public void routeChanged(int destination, int oldIface, int newIface, int oldMetric, int newMetric)
+    {
+	RouteChange c = new RouteChange(id, destination, oldIface, newIface, oldMetric, newMetric, getCurrentTime());
+	if (!RouterActors.publish(c)) RouteChange.publish(c);
+    }
+
+    /**
+     * Returns the cumulative packet counters as (sent, received,
+     * dropped, forwarded).
+     * @return int[]
+     */
+    public int[] getPacketCounts()
+    {
+	return new int[] { counter[SENT], counter[RECV], counter[DROP], counter[FORW] };
+    }
+
+    /**
+     * Returns the cumulative routing traffic counters as (control
+     * packets sent, routing entries received).
+     * @return int[]
+     */
+    public int[] getControlCounts()
+    {
+	return new int[] { counter[CTRL], counter[ENTRIES] };
+    }
+
     /**
      * Dump packet Stats to stdout for both the router and each link.
      * s : sent , r : recv , d : drop , f : forw
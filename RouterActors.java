@@ -0,0 +1,178 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Vector;
+import java.util.concurrent.Phaser;
+
+/**
+ * The <code>RouterActors</code> class runs the router phase of each time
+ * step on several threads, an alternative to the lockstep loop of
+ * <code>Simulator.process_routers</code>. Each router is an actor whose
+ * mailbox is the in bound queues of its links. Routers are shared out
+ * between the worker threads by <code>RouterPartitioner</code>, so each
+ * worker mostly drives a connected group of routers and the links inside
+ * it stay in one cache. Routers only touch their own end of each link
+ * during the router phase, so the actors of one step are independent.
+ * The clock advances through a <code>Phaser</code> : one barrier releases
+ * the workers into a step and a second one waits for all of them to
+ * finish it.
+ * <p>
+ * Results match lockstep mode exactly. While the workers run, output
+ * printed by a router and route changes it reports go to its worker's
+ * buffers, marked where each router ends, and are then emitted router
+ * by router in index order as in lockstep mode.
+ */
+public class RouterActors
+{
+    private Router[] routers;
+    private Worker[] workers;
+    // The worker running each router.
+    private int[] owner;
+    private Phaser phaser;
+    private PrintStream console;
+    private volatile int now;
+    private volatile boolean done = false;
+    private volatile Throwable failed;
+
+    // The worker buffers of the current thread, null outside the workers.
+    private static ThreadLocal<Worker> current = new ThreadLocal<Worker>();
+
+    /**
+     * <code>RouterActors</code> constructor, starts the worker threads,
+     * whose <code>System.out</code> goes to their buffers through
+     * <code>ThreadOut</code>.
+     * @param r the routers to run, in index order
+     * @param links the links, used to group neighbouring routers
+     * @param n number of worker threads, 0 for one per processor
+     */
+    public RouterActors(Router[] r, Link[] links, int n)
+    {
+	routers = r;
+	if (n <= 0) n = Runtime.getRuntime().availableProcessors();
+	n = Math.max(1, Math.min(n, r.length));
+	owner = RouterPartitioner.partition(r, links, n);
+	int[] count = new int[n];
+	for (int i = 0; i < r.length; i++) count[owner[i]]++;
+	phaser = new Phaser(n + 1);
+	ThreadOut.install();
+	// Our output goes wherever the thread driving us prints.
+	console = System.out;
+	workers = new Worker[n];
+	for (int k = 0; k < n; k++) {
+	    workers[k] = new Worker(k, count[k]);
+	}
+	for (int i = 0; i < r.length; i++) {
+	    Worker w = workers[owner[i]];
+	    w.mine[w.cursor++] = i;
+	}
+	for (Worker w : workers) {
+	    w.setDaemon(true);
+	    w.start();
+	}
+    }
+
+    /**
+     * Runs every router for time step t and waits for them, then prints
+     * their output and publishes their route changes in router order.
+     * @param t current time
+     */
+    public void run(int t)
+    {
+	now = t;
+	phaser.arriveAndAwaitAdvance();
+	phaser.arriveAndAwaitAdvance();
+	for (Worker w : workers) w.cursor = 0;
+	for (int i = 0; i < routers.length; i++) {
+	    Worker w = workers[owner[i]];
+	    int k = w.cursor++;
+	    int from = (k == 0) ? 0 : w.outEnd[k - 1];
+	    if (w.outEnd[k] > from) console.write(w.out.bytes(), from, w.outEnd[k] - from);
+	    for (int c = (k == 0) ? 0 : w.changeEnd[k - 1]; c < w.changeEnd[k]; c++) {
+		RouteChange.publish(w.changes.elementAt(c));
+	    }
+	}
+	for (Worker w : workers) {
+	    w.out.reset();
+	    w.changes.clear();
+	}
+	console.flush();
+	if (failed != null) {
+	    throw new RuntimeException("Router actor failed at time "+t, failed);
+	}
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    public void close()
+    {
+	done = true;
+	phaser.arriveAndDeregister();
+    }
+
+    /**
+     * Queues a route change in the buffers of the current worker.
+     * @param c the change
+     * @return false if the caller is not a worker
+     */
+    static boolean publish(RouteChange c)
+    {
+	Worker w = current.get();
+	if (w == null) return false;
+	w.changes.addElement(c);
+	return true;
+    }
+
+    /**
+     * A thread driving its share of the routers, in index order.
+     */
+    private class Worker extends Thread
+    {
+	private int[] mine;
+	private int cursor = 0;
+	private Buffer out = new Buffer();
+	private PrintStream print = new PrintStream(out);
+	private Vector<RouteChange> changes = new Vector<RouteChange>();
+	// Where the output and changes of each of our routers end.
+	private int[] outEnd;
+	private int[] changeEnd;
+
+	Worker(int k, int n)
+	{
+	    super("router-actors-"+k);
+	    mine = new int[n];
+	    outEnd = new int[n];
+	    changeEnd = new int[n];
+	}
+
+	public void run()
+	{
+	    current.set(this);
+	    ThreadOut.redirect(print);
+	    while (true) {
+		phaser.arriveAndAwaitAdvance();
+		if (done) break;
+		try {
+		    for (int k = 0; k < mine.length; k++) {
+			routers[mine[k]].setTimeStep(now);
+			routers[mine[k]].go();
+			print.flush();
+			outEnd[k] = out.size();
+			changeEnd[k] = changes.size();
+		    }
+		} catch (Throwable e) {
+		    failed = e;
+		}
+		phaser.arriveAndAwaitAdvance();
+	    }
+	    phaser.arriveAndDeregister();
+	}
+    }
+
+    /**
+     * Output buffer whose bytes can be read without copying.
+     */
+    private static class Buffer extends ByteArrayOutputStream
+    {
+	byte[] bytes() { return buf; }
+    }
+}
@@ -0,0 +1,221 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The <code>RouterPartitioner</code> class splits routers between worker
+ * threads by graph locality, so that routers exchanging packets every
+ * time step mostly run on the same thread and the links between them
+ * stay in one core's cache. Routers are ordered breadth first, starting
+ * each connected component from a router at the edge of it, and the
+ * order is cut into equal blocks. Both that split and plain index blocks
+ * are then refined by moving routers on a boundary to the part holding
+ * most of their neighbours, while the parts stay balanced, and the split
+ * crossing fewer links is used. Running the class from the command line
+ * reports how many links cross between parts for each split.
+ */
+public class RouterPartitioner
+{
+    // Passes of boundary refinement, and how far above an equal share a
+    // part may grow, in percent.
+    private static int PASSES = 8;
+    private static int SLACK = 3;
+
+    /**
+     * Splits routers into k parts of nearly equal size crossing as few
+     * links as we can find.
+     * @param r the routers
+     * @param links the links, those with an end outside r are ignored
+     * @param k number of parts
+     * @return the part of each router, by position in r
+     */
+    public static int[] partition(Router[] r, Link[] links, int k)
+    {
+	int[][] adj = adjacency(r, links);
+	int[] a = refine(adj, bfs(r, links, k), k);
+	int[] b = refine(adj, blocks(r, k), k);
+	return (crossing(r, links, b) <= crossing(r, links, a)) ? b : a;
+    }
+
+    /**
+     * Splits routers into k parts of nearly equal size, breadth first.
+     * @param r the routers
+     * @param links the links, those with an end outside r are ignored
+     * @param k number of parts
+     * @return the part of each router, by position in r
+     */
+    public static int[] bfs(Router[] r, Link[] links, int k)
+    {
+	int[][] adj = adjacency(r, links);
+	int[] order = new int[r.length];
+	boolean[] seen = new boolean[r.length];
+	int n = 0;
+	for (int s = 0; s < r.length; s++) {
+	    if (seen[s]) continue;
+	    // The last router reached from s is far out in its component,
+	    // start again from there so the bands run across the component.
+	    int end = visit(adj, s, order, n, seen);
+	    for (int i = n; i < end; i++) seen[order[i]] = false;
+	    end = visit(adj, order[end - 1], order, n, seen);
+	    n = end;
+	}
+	int[] part = new int[r.length];
+	for (int i = 0; i < n; i++) {
+	    part[order[i]] = (int)((long)i * k / n);
+	}
+	return part;
+    }
+
+    /**
+     * Splits routers into k blocks of consecutive positions.
+     * @param r the routers
+     * @param k number of parts
+     * @return the part of each router, by position in r
+     */
+    public static int[] blocks(Router[] r, int k)
+    {
+	int[] part = new int[r.length];
+	for (int i = 0; i < r.length; i++) {
+	    part[i] = (int)((long)i * k / r.length);
+	}
+	return part;
+    }
+
+    /**
+     * Counts the links whose ends are in different parts.
+     * @param r the routers
+     * @param links the links, those with an end outside r are ignored
+     * @param part the part of each router, by position in r
+     * @return number of crossing links
+     */
+    public static int crossing(Router[] r, Link[] links, int[] part)
+    {
+	HashMap<Integer, Integer> pos = positions(r);
+	int n = 0;
+	for (Link l : links) {
+	    Integer a = pos.get(l.getRouter(0));
+	    Integer b = pos.get(l.getRouter(1));
+	    if (a != null && b != null && part[a] != part[b]) n++;
+	}
+	return n;
+    }
+
+    /**
+     * Moves routers on a part boundary to the neighbouring part that
+     * holds most of their neighbours, when that crosses fewer links and
+     * keeps the parts within a few percent of an equal share.
+     * @param adj neighbours of each router by position
+     * @param part the part of each router, changed in place
+     * @param k number of parts
+     * @return part
+     */
+    private static int[] refine(int[][] adj, int[] part, int k)
+    {
+	int n = part.length;
+	if (n == 0 || k < 2) return part;
+	int max = (int)((long)n * (100 + SLACK) / (100L * k)) + 1;
+	int min = (int)((long)n * (100 - SLACK) / (100L * k));
+	int[] size = new int[k];
+	for (int i = 0; i < n; i++) size[part[i]]++;
+	int[] count = new int[k];
+	for (int pass = 0; pass < PASSES; pass++) {
+	    int moved = 0;
+	    for (int u = 0; u < n; u++) {
+		int p = part[u];
+		for (int v : adj[u]) count[part[v]]++;
+		int best = p;
+		for (int v : adj[u]) {
+		    int q = part[v];
+		    if (count[q] > count[best] && size[q] < max) best = q;
+		}
+		for (int v : adj[u]) count[part[v]] = 0;
+		if (best == p || size[p] <= min) continue;
+		part[u] = best;
+		size[p]--;
+		size[best]++;
+		moved++;
+	    }
+	    if (moved == 0) break;
+	}
+	return part;
+    }
+
+    // Breadth first search from s, appending to order from n on.
+    // Returns the new end of order.
+    private static int visit(int[][] adj, int s, int[] order, int n, boolean[] seen)
+    {
+	int head = n;
+	order[n++] = s;
+	seen[s] = true;
+	while (head < n) {
+	    int u = order[head++];
+	    for (int v : adj[u]) {
+		if (seen[v]) continue;
+		seen[v] = true;
+		order[n++] = v;
+	    }
+	}
+	return n;
+    }
+
+    private static HashMap<Integer, Integer> positions(Router[] r)
+    {
+	HashMap<Integer, Integer> pos = new HashMap<Integer, Integer>();
+	for (int i = 0; i < r.length; i++) pos.put(r[i].getId(), i);
+	return pos;
+    }
+
+    // Neighbours of each router by position, in link order.
+    private static int[][] adjacency(Router[] r, Link[] links)
+    {
+	HashMap<Integer, Integer> pos = positions(r);
+	int[] degree = new int[r.length];
+	int[][] ends = new int[links.length][];
+	for (int i = 0; i < links.length; i++) {
+	    Integer a = pos.get(links[i].getRouter(0));
+	    Integer b = pos.get(links[i].getRouter(1));
+	    if (a == null || b == null || a.intValue() == b.intValue()) continue;
+	    ends[i] = new int[] { a, b };
+	    degree[a]++;
+	    degree[b]++;
+	}
+	int[][] adj = new int[r.length][];
+	for (int i = 0; i < r.length; i++) adj[i] = new int[degree[i]];
+	Arrays.fill(degree, 0);
+	for (int[] e : ends) {
+	    if (e == null) continue;
+	    adj[e[0]][degree[e[0]]++] = e[1];
+	    adj[e[1]][degree[e[1]]++] = e[0];
+	}
+	return adj;
+    }
+
+    /**
+     * main function called from the command line with a configuration
+     * file and a number of parts, prints the crossing links for index
+     * blocks and for the breadth first split.
+     * @param args
+     */
+    public static void main(String args[])
+    {
+	if (args.length != 2) {
+	    System.out.println("Usage : java RouterPartitioner <config file> <parts>");
+	    System.exit(1);
+	}
+	int k = Integer.parseInt(args[1]);
+	PrintStream stdout = System.out;
+	System.setOut(new PrintStream(new OutputStream() {
+		public void write(int b) { }
+		public void write(byte[] b, int off, int len) { }
+	    }));
+	Simulator sim = new Simulator(args[0], false);
+	System.setOut(stdout);
+	Router[] r = sim.get_routers();
+	Link[] l = sim.get_links();
+	System.out.println(r.length+" routers, "+l.length+" links, "+k+" parts");
+	System.out.println("index blocks  "+crossing(r, l, blocks(r, k))+" crossing links");
+	System.out.println("breadth first "+crossing(r, l, bfs(r, l, k))+" crossing links");
+	System.out.println("refined       "+crossing(r, l, partition(r, l, k))+" crossing links");
+    }
+}
@@ -2,6 +2,8 @@
  * The <code>RoutingAlgorithm</code> interface should be implemented by any
  * class whose instances are intended to provide the routing algorithm. The
  * class that implements this algorithm must have a zero argument constructor.
+ * Implementations should report every change to a route's interface or
+ * metric with <code>Router.routeChanged</code>, see <code>RouteChange</code>.
  *
  * @author  Adam Greenhalgh
  * @version 1.0, 16/02/07
@@ -32,6 +34,7 @@ public interface RoutingAlgorithm {
     public Packet generateRoutingPacket(int iface);
     /**
      * Given a routing packet from another host process it and add it to the routing table. 
+     * The packet is reused once this returns, so neither it nor its payload entries may be kept.
      * @param p the packet to process
      * @param iface the interface it came in on
      */
@@ -55,6 +58,62 @@ public interface RoutingAlgorithm {
      * d <destination> i <interface> m <metric>
      */
     public void showRoutes();
+
+    /**
+     * Returns the routing table as (destination, interface, metric)
+     * triples packed into one array, in the order <code>showRoutes</code>
+     * prints them. Destinations are router ids, or -1 - area for routes
+     * to a whole area. Used for binary and diff table dumps, algorithms
+     * that return null fall back to <code>showRoutes</code>.
+     * @return the routes, or null if not supported
+     */
+    public default int[] getRoutes() {
+	return null;
+    }
+
+    /**
+     * Returns the metric of the route to a destination. The default
+     * looks it up in <code>getRoutes</code>, algorithms should answer
+     * directly if they can.
+     * @param destination the destination address
+     * @return the metric, or -1 if there is no route
+     */
+    public default int getMetric(int destination) {
+	int[] routes = getRoutes();
+	if (routes == null) return -1;
+	for (int i = 0; i < routes.length; i += 3) {
+	    if (routes[i] == destination) return routes[i+2];
+	}
+	return -1;
+    }
+    
+    /**
+     * Returns the interface and metric of the route to a destination
+     * packed into one long, see <code>RouteStore.getRoute</code>. The
+     * default looks it up in <code>getRoutes</code>. <code>DV</code>
+     * reads its table directly, and with the <code>atomic</code> store
+     * it may be called from any thread while the simulation runs.
+     * @param destination the destination address
+     * @return the packed route, or 0 if there is no route
+     */
+    public default long getRoute(int destination) {
+	int[] routes = getRoutes();
+	if (routes == null) return 0;
+	for (int i = 0; i < routes.length; i += 3) {
+	    if (routes[i] == destination) return RouteStore.pack(routes[i+1], routes[i+2]);
+	}
+	return 0;
+    }
+    
+    /**
+     * Returns a count of the changes to the routing table, which grows
+     * whenever the interface or metric of a route changes. Adaptive
+     * updates only back off for algorithms that report it.
+     * @return the version, or -1 if not tracked
+     */
+    public default long getVersion() {
+	return -1;
+    }
     
     /**
      *Enables or disables split horizon with poison reverse.
@@ -4,6 +4,8 @@
  */ 
 public class RoutingPacket extends Packet
 {
+    private static final long serialVersionUID = 1L;
+
     /**
      * <code>RoutingPacket</code> constructor. Calls the super class and 
      * sets the type to ROUTING.
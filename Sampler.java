@@ -0,0 +1,313 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.HashSet;
+import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * The <code>Sampler</code> class records network state every few time
+ * steps into a file for plotting, set up by the config line
+ * <code>sample &lt;every&gt; &lt;file&gt; [tables] [queues] [counters] [infinity]</code>.
+ * With no groups named every group is recorded. The columns are the time
+ * and then, per group :
+ * <ul>
+ * <li><code>tables</code> : <code>rt.&lt;router&gt;</code>, routing table size.</li>
+ * <li><code>queues</code> : <code>q.&lt;router&gt;.&lt;interface&gt;</code>, packets
+ * queued in and out at that end of the link.</li>
+ * <li><code>counters</code> : <code>s.&lt;router&gt;</code>, <code>r.</code>,
+ * <code>d.</code> and <code>f.</code>, the cumulative router counters.</li>
+ * <li><code>infinity</code> : <code>inf.&lt;router&gt;</code>, routes at
+ * metric <code>INFINITY</code>.</li>
+ * </ul>
+ * A file ending in <code>.csv</code> gets a header line and a line per
+ * sample. Any other file is binary and column major : a header of the int
+ * 0x44565453 ("DVTS"), the column count and the column names, then row
+ * groups of up to 1024 samples, each the int row count followed by every
+ * column's values, all big endian. Rows are batched in memory and written
+ * by a background thread so sampling costs the time step little more
+ * than reading the counters.
+ */
+public class Sampler
+{
+    /**
+     * Routing table sizes.
+     */
+    public static int TABLES = 1;
+    /**
+     * Link queue lengths.
+     */
+    public static int QUEUES = 2;
+    /**
+     * Router packet counters.
+     */
+    public static int COUNTERS = 4;
+    /**
+     * Routes at <code>INFINITY</code>.
+     */
+    public static int INFINITY = 8;
+
+    private static int MAGIC = 0x44565453;
+    // Row groups hold at most 1024 rows and about 4MB of values.
+    private static int GROUP = 1024;
+    private static int GROUP_INTS = 1 << 20;
+    private static int BATCH = 1 << 16;
+    // Handed to the writer to make it finish.
+    private static byte[] END = new byte[0];
+
+    private int every;
+    private String file;
+    private int groups;
+    private boolean csv;
+
+    private Router[] routers;
+    private Link[] links;
+    private int[] ends;
+    private int columns;
+    // Table size and routes at infinity of each router, from one read of
+    // its routes a sample.
+    private int[] tableSize;
+    private int[] infinite;
+
+    // Binary row group, column major.
+    private int[] group;
+    private int groupRows;
+    private int rows = 0;
+    private StringBuilder lines = new StringBuilder();
+
+    private BlockingQueue<byte[]> batches = new ArrayBlockingQueue<byte[]>(8);
+    private Thread writer;
+    private volatile IOException failed;
+
+    /**
+     * <code>Sampler</code> constructor.
+     * @param e sample every e time steps
+     * @param f the file to write
+     * @param g the groups to record, a sum of <code>TABLES</code>,
+     * <code>QUEUES</code>, <code>COUNTERS</code> and <code>INFINITY</code>
+     */
+    public Sampler(int e, String f, int g)
+    {
+	every = e;
+	file = f;
+	groups = g;
+	csv = f.endsWith(".csv");
+    }
+
+    /**
+     * Gets the file the samples are written to.
+     * @return String
+     */
+    public String getFile()
+    {
+	return file;
+    }
+
+    /**
+     * Chooses the routers and links to sample, writes the header and
+     * starts the background writer.
+     * @param r the routers
+     * @param l the links, only ends attached to one of the routers are
+     * sampled
+     * @param suffix appended to the file name, empty unless several
+     * processes share the config
+     * @throws IOException if the file cannot be opened
+     */
+    public void open(Router[] r, Link[] l, String suffix) throws IOException
+    {
+	routers = r;
+	tableSize = new int[r.length];
+	infinite = new int[r.length];
+	Vector<String> names = new Vector<String>();
+	names.addElement("time");
+	if ((groups & TABLES) != 0) {
+	    for (Router x : routers) names.addElement("rt."+x.getId());
+	}
+	if ((groups & QUEUES) != 0) {
+	    // Each link end as link * 2 + end.
+	    Vector<Link> sampled = new Vector<Link>();
+	    Vector<Integer> e = new Vector<Integer>();
+	    HashSet<Integer> ids = new HashSet<Integer>();
+	    for (Router x : routers) ids.add(x.getId());
+	    for (Link x : l) {
+		boolean seen = false;
+		for (int end = 0; end < 2; end++) {
+		    if (!ids.contains(x.getRouter(end))) continue;
+		    if (!seen) sampled.addElement(x);
+		    seen = true;
+		    e.addElement((sampled.size() - 1) * 2 + end);
+		    names.addElement("q."+x.getRouter(end)+"."+x.getInterface(end));
+		}
+	    }
+	    links = sampled.toArray(new Link[0]);
+	    ends = new int[e.size()];
+	    for (int i = 0; i < ends.length; i++) ends[i] = e.elementAt(i);
+	}
+	if ((groups & COUNTERS) != 0) {
+	    for (Router x : routers) {
+		names.addElement("s."+x.getId());
+		names.addElement("r."+x.getId());
+		names.addElement("d."+x.getId());
+		names.addElement("f."+x.getId());
+	    }
+	}
+	if ((groups & INFINITY) != 0) {
+	    for (Router x : routers) names.addElement("inf."+x.getId());
+	}
+	columns = names.size();
+
+	final OutputStream out = new BufferedOutputStream(new FileOutputStream(file+suffix), BATCH);
+	if (csv) {
+	    for (int c = 0; c < columns; c++) {
+		lines.append(c == 0 ? "" : ",").append(names.elementAt(c));
+	    }
+	    lines.append('\n');
+	}
+	else {
+	    DataOutputStream header = new DataOutputStream(out);
+	    header.writeInt(MAGIC);
+	    header.writeInt(columns);
+	    for (String s : names) header.writeUTF(s);
+	    groupRows = Math.max(1, Math.min(GROUP, GROUP_INTS / columns));
+	    group = new int[columns * groupRows];
+	}
+	writer = new Thread("sampler") {
+		public void run() {
+		    try {
+			// Keep taking batches after a failure so the simulation never blocks.
+			for (byte[] b = batches.take(); b != END; b = batches.take()) {
+			    if (failed == null) write(out, b);
+			}
+		    } catch (InterruptedException e) {
+		    }
+		    try {
+			out.close();
+		    } catch (IOException e) {
+			if (failed == null) failed = e;
+		    }
+		}
+	    };
+	writer.start();
+    }
+
+    private void write(OutputStream out, byte[] b)
+    {
+	try {
+	    out.write(b);
+	} catch (IOException e) {
+	    failed = e;
+	}
+    }
+
+    /**
+     * Records a sample if now is a sampling time step.
+     * @param now current time
+     */
+    public void sample(int now)
+    {
+	if (now % every != 0) return;
+	int c = 0;
+	put(c++, now);
+	if ((groups & (TABLES | INFINITY)) != 0) {
+	    for (int k = 0; k < routers.length; k++) {
+		int[] routes = routers[k].getRoutes();
+		int n = 0;
+		if (routes != null) {
+		    for (int i = 2; i < routes.length; i += 3) {
+			if (routes[i] >= DV.INFINITY) n++;
+		    }
+		}
+		tableSize[k] = (routes == null) ? -1 : routes.length / 3;
+		infinite[k] = n;
+	    }
+	}
+	if ((groups & TABLES) != 0) {
+	    for (int k = 0; k < routers.length; k++) put(c++, tableSize[k]);
+	}
+	if ((groups & QUEUES) != 0) {
+	    for (int e : ends) {
+		Link x = links[e / 2];
+		put(c++, x.queueLength(e % 2, true) + x.queueLength(e % 2, false));
+	    }
+	}
+	if ((groups & COUNTERS) != 0) {
+	    for (Router x : routers) {
+		int[] n = x.getPacketCounts();
+		for (int i = 0; i < 4; i++) put(c++, n[i]);
+	    }
+	}
+	if ((groups & INFINITY) != 0) {
+	    for (int k = 0; k < routers.length; k++) put(c++, infinite[k]);
+	}
+	if (csv) {
+	    lines.append('\n');
+	    if (lines.length() >= BATCH) flush();
+	}
+	else if (++rows == groupRows) {
+	    flush();
+	}
+    }
+
+    private void put(int c, int v)
+    {
+	if (csv) {
+	    if (c != 0) lines.append(',');
+	    lines.append(v);
+	}
+	else {
+	    group[c * groupRows + rows] = v;
+	}
+    }
+
+    // Hands the batched rows to the writer.
+    private void flush()
+    {
+	byte[] b;
+	if (csv) {
+	    b = lines.toString().getBytes();
+	    lines.setLength(0);
+	}
+	else {
+	    if (rows == 0) return;
+	    ByteBuffer buf = ByteBuffer.allocate(4 + 4 * columns * rows);
+	    buf.putInt(rows);
+	    for (int c = 0; c < columns; c++) {
+		buf.asIntBuffer().put(group, c * groupRows, rows);
+		buf.position(buf.position() + 4 * rows);
+	    }
+	    b = buf.array();
+	    rows = 0;
+	}
+	enqueue(b);
+    }
+
+    private void enqueue(byte[] b)
+    {
+	try {
+	    batches.put(b);
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+    }
+
+    /**
+     * Writes the remaining samples and waits for the writer to finish.
+     */
+    public void close()
+    {
+	if (writer == null) return;
+	flush();
+	enqueue(END);
+	try {
+	    writer.join();
+	} catch (InterruptedException e) {
+	    Thread.currentThread().interrupt();
+	}
+	writer = null;
+	if (failed != null) System.out.println("Error writing samples to "+file+" : "+failed);
+    }
+}
@@ -1,11 +1,22 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
 import java.util.Vector;
+import java.util.function.Consumer;
 
 /**  
  * The <code>Simulator</code> class loads the configuration and runs each
  * router with the correct class for that router as specified in the 
  * configurtion file. At each time step the Simulator carries out (in order)
- * event processing <code>process_events</code>, routers tasks 
+ * event processing <code>process_events</code>, traffic flows
+ * <code>process_flows</code>, routers tasks 
  * <code>process_routers</code>, packet forwarding <code>process_packets</code>
+ * <p>
+ * A simulator set up by <code>SimulatorBuilder</code> may also be driven
+ * a few steps at a time with <code>step</code> and <code>run_until</code>
+ * and its routes and counters read between steps.
  *
  * @author  Adam Greenhalgh                                                    
  * @version 1.0, 16/02/07  
@@ -16,9 +27,35 @@ public class Simulator
     private String config_file;
     private int stop_time=20;
     private Router[] routers;
+    private AddressTable addresses;
     private Event[] events;
     private Link[] links;
+    private Flow[] flows = new Flow[0];
+    private Vector<Chaos> chaos = new Vector<Chaos>();
+    private Config event_source;
+    // Events loaded sorted by the time step they run at, run from a
+    // cursor rather than scanned every step.
+    private boolean events_sorted = false;
+    private int next_event = 0;
+    private Partition partition;
+    private RouteSnapshot snapshots = new RouteSnapshot();
+    private Sampler sampler;
+    private RouterActors actors;
+    private int actor_threads = -1;
+    private LinkMover mover;
+    private RouteOracle oracle;
+    private int link_threads = -1;
+    private Monitor monitor;
+    private boolean monitored = false;
     private int packet_counter=0;
+    // The last time step run, and whether the run has been started.
+    private int now = 0;
+    private boolean started = false;
+    private boolean quiet = false;
+    // Route listeners registered by the config, removed on close.
+    private Vector<RouteListener> listeners = new Vector<RouteListener>();
+    // The simulator holding the process wide state, see claim.
+    private static Simulator active;
 
     /**
      * <code>Simulator</code> constructor, loads the configuration given
@@ -27,9 +64,67 @@ public class Simulator
      */
     public Simulator(String cf)
     {
+	this(cf,false);
+    }
+
+    /**
+     * <code>Simulator</code> constructor, loads the configuration given
+     * the config file cf, optionally streaming its events.
+     * @param cf configuration file
+     * @param stream whether events are read as the clock reaches them
+     */
+    public Simulator(String cf, boolean stream)
+    {
+	claim();
 	config_file = cf;
+	if (Topology.isTopology(cf)) {
+	    System.out.println("Loading topology : "+config_file);
+	    try {
+		Topology.load(cf, this);
+	    } catch (IOException e) {
+		System.out.println("Cannot load topology "+cf+" : "+e);
+		System.exit(1);
+	    }
+	    return;
+	}
 	System.out.println("Loading configuration : "+config_file);
-	Config config = new Config(config_file,this);
+	Config config = new Config(config_file,this,stream);
+    }
+
+    /**
+     * <code>Simulator</code> constructor, configured by calls on a
+     * <code>Config</code> rather than from a file. Used by
+     * <code>SimulatorBuilder</code>.
+     * @param steps the calls, in order
+     * @param q whether to discard the output of this thread
+     */
+    Simulator(Iterable<Consumer<Config>> steps, boolean q)
+    {
+	quiet = q;
+	claim();
+	PrintStream was = silence();
+	try {
+	    Config config = new Config(this);
+	    for (Consumer<Config> c : steps) c.accept(config);
+	    config.configure();
+	} finally {
+	    restore(was);
+	}
+    }
+
+    /**
+     * Takes the process wide state, the metrics registry, the route
+     * store and the route listeners, for this simulator until it is
+     * closed. Only one simulator may be set up or run at a time.
+     */
+    private void claim()
+    {
+	synchronized (Simulator.class) {
+	    if (active != null && active != this) {
+		throw new IllegalStateException("Only one simulator may run at a time, close the last one first");
+	    }
+	    active = this;
+	}
     }
 
     /** 
@@ -52,19 +147,50 @@ public class Simulator
 
     /**
      * Adds the routers created in the <code>Config</code> class to the 
-     * the simulator.
+     * the simulator. Routers are stored by their dense index.
      * @param r a list of routers.
+     * @param a the table mapping router ids to indexes.
      */
-    public void add_routers(Vector<Router> r)
+    public void add_routers(Vector<Router> r, AddressTable a)
     {
+	addresses = a;
 	routers = new Router[r.size()];
 	int count = 0;
     for (Router tr : r) {
-	    routers[tr.getId()] = tr;
+	    routers[tr.getIndex()] = tr;
 	    count++;
 	}
     }
 
+    /**
+     * Gets a router by its id.
+     * @param id router id
+     * @return Router
+     */
+    private Router router(int id)
+    {
+	int i = addresses.indexOf(id);
+	if (i < 0) {
+	    System.out.println("Unknown router "+id);
+	    System.exit(1);
+	}
+	return routers[i];
+    }
+
+    /**
+     * Gets a router by its id for a caller of the API, which may recover
+     * from a bad id rather than end the run.
+     * @param id router id
+     * @return Router
+     * @throws IllegalArgumentException if no router has the id
+     */
+    private Router lookup(int id)
+    {
+	int i = addresses.indexOf(id);
+	if (i < 0) throw new IllegalArgumentException("Unknown router "+id);
+	return routers[i];
+    }
+
     /**
      * Adds the events created in the <code>Config</code> class to the 
      * the simulator.
@@ -81,6 +207,171 @@ public class Simulator
 	}
     }
 
+    /**
+     * Sets the <code>Config</code> that streams events to the simulator
+     * as the clock reaches them.
+     * @param c the streaming config reader.
+     */
+    public void set_event_source(Config c)
+    {
+	event_source = c;
+    }
+
+    /**
+     * Runs only this process's share of the routers, exchanging packets
+     * on links that cross to other processes through p.
+     * @param p the partition this process belongs to.
+     */
+    public void set_partition(Partition p)
+    {
+	partition = p;
+    }
+
+    /**
+     * Records network state to a file while the simulation runs.
+     * @param s the sampler
+     */
+    public void set_sampler(Sampler s)
+    {
+	sampler = s;
+    }
+
+    /**
+     * Runs the routers as actors on n worker threads instead of in
+     * lockstep, see <code>RouterActors</code>.
+     * @param n number of worker threads, 0 for one per processor
+     */
+    public void set_actors(int n)
+    {
+	actor_threads = n;
+    }
+
+    /**
+     * Moves packets across the links on n worker threads, see
+     * <code>LinkMover</code>.
+     * @param n number of worker threads, 0 for one per processor
+     */
+    public void set_link_threads(int n)
+    {
+	link_threads = n;
+    }
+
+    /**
+     * Publishes the state of the run as JMX MBeans, see
+     * <code>Monitor</code>.
+     * @param on whether to register the MBeans
+     */
+    public void set_monitor(boolean on)
+    {
+	monitored = on;
+    }
+
+    /**
+     * Starts following route changes so that <code>checkRoutes</code>
+     * events can compare the tables with shortest paths.
+     */
+    public void enable_oracle()
+    {
+	if (oracle == null) oracle = new RouteOracle();
+    }
+
+    /**
+     * Registers a route listener for the length of the run, it is
+     * removed when the simulator is closed.
+     * @param l the listener
+     */
+    public void add_listener(RouteListener l)
+    {
+	listeners.addElement(l);
+	RouteChange.addListener(l);
+    }
+
+    /**
+     * Gets the routers, by index.
+     * @return Router[]
+     */
+    Router[] get_routers()
+    {
+	return routers;
+    }
+
+    /**
+     * Gets the links, in config order.
+     * @return Link[]
+     */
+    Link[] get_links()
+    {
+	return links;
+    }
+
+    /**
+     * Gets the table mapping router ids to dense indexes.
+     * @return AddressTable
+     */
+    public AddressTable get_addresses()
+    {
+	return addresses;
+    }
+
+    /**
+     * Is the router at index i run by this process, always true unless
+     * the simulation is partitioned.
+     * @param i router index
+     * @return boolean
+     */
+    private boolean is_local(int i)
+    {
+	return partition == null || partition.isLocal(routers[i].getId());
+    }
+
+    /**
+     * Adds the traffic flows created in the <code>Config</code> class to
+     * the simulator.
+     * @param f a list of flows.
+     */
+    public void add_flows(Vector<Flow> f)
+    {
+	flows = new Flow[f.size()];
+	int count = 0;
+    for (Flow tf : f) {
+	    System.out.println("Adding "+tf);
+	    flows[count] = tf;
+	    count++;
+	}
+    }
+
+    /**
+     * Sets the routers, links and events of a precompiled topology,
+     * attaching the links to the routers without printing anything.
+     * @param r the routers, by index
+     * @param a the table mapping router ids to indexes
+     * @param l the links
+     * @param e the events, sorted by the time step they run at
+     */
+    void set_topology(Router[] r, AddressTable a, Link[] l, Event[] e)
+    {
+	routers = r;
+	addresses = a;
+	links = l;
+	events = e;
+	events_sorted = true;
+	for (Link x : links) {
+	    router(x.getRouter(0)).attach(x);
+	    router(x.getRouter(1)).attach(x);
+	}
+    }
+
+    /**
+     * Adds a fault injector created in the <code>Config</code> class to
+     * the simulator, see <code>Chaos</code>.
+     * @param c the fault injector
+     */
+    public void add_chaos(Chaos c)
+    {
+	System.out.println("Adding "+c);
+	chaos.addElement(c);
+    }
+
     /**
      * Adds the links created in the <code>Config</code> class to the 
      * the simulator and attaches them to the router objects.
@@ -95,8 +386,8 @@ public class Simulator
 	    count++;
 	}
 	for (int i=0; i<links.length; i++) {
-	    routers[links[i].getRouter(0)].addLinks(links[i]); 
-	    routers[links[i].getRouter(1)].addLinks(links[i]); 
+	    router(links[i].getRouter(0)).addLinks(links[i]); 
+	    router(links[i].getRouter(1)).addLinks(links[i]); 
 	}
 	
     }
@@ -108,76 +399,187 @@ public class Simulator
     private void process_events(int now)
     {
 	Event event;
-	Packet packet;
 
+	while (events_sorted && next_event < events.length && events[next_event].getTime() <= now) {
+	    run_event(events[next_event++],now);
+	}
 	//	while (myenum.hasMoreElements()) {
-	for (int count = 0; count < events.length ; count++) {
+	for (int count = events_sorted ? events.length : 0; count < events.length ; count++) {
 	    event = events[count];
 	    if ((event.getTime() <= now) && (event.getState() != true)) {
-		if (event.getOperation().equals("send")) {
-		    packet = new Packet(Integer.parseInt(event.getArgument(0)),Integer.parseInt(event.getArgument(1)));
-		    packet.setType(Packet.DATA);
-		    packet_counter++;
-		    packet.setSequenceNumber(packet_counter);
-		    routers[packet.getSource()].send(packet);
-		    
-		}
-		else if (event.getOperation().equals("uplink")) {
-		    for (int i=0; i<links.length;i++) {
-			if (links[i].getRouter(0) == Integer.parseInt(event.getArgument(0)) && 
-			    links[i].getInterface(0) == Integer.parseInt(event.getArgument(1)) && 
-			    links[i].getRouter(1) == Integer.parseInt(event.getArgument(2)) && 
-			    links[i].getInterface(1) == Integer.parseInt(event.getArgument(3)) ) {
-			    System.out.println("Setting link status to up "+links[i]);
-			    links[i].setState(true);
-			}
-		    }
-		}
-		else if (event.getOperation().equals("downlink")) {
-		    for (int i=0; i<links.length;i++) {
-			if (links[i].getRouter(0) == Integer.parseInt(event.getArgument(0)) && 
-			    links[i].getInterface(0) == Integer.parseInt(event.getArgument(1)) && 
-			    links[i].getRouter(1) == Integer.parseInt(event.getArgument(2)) && 
-			    links[i].getInterface(1) == Integer.parseInt(event.getArgument(3)) ) {
-			    System.out.println("Setting link status to down "+links[i]);
-			    links[i].setState(false);
-			}
-		    }
-		}
-		else if (event.getOperation().equals("dumprt")) {
-		    if (event.getArgument(0).equals("all")) {
-			for (int i=0; i<routers.length; i++) {
-			    routers[i].dumpRoutingTable();
-			}   
-		    }
-		    else {
-			routers[Integer.parseInt(event.getArgument(0))].dumpRoutingTable();
-		    }
+		run_event(event,now);
+	    }
+	}
+	if (event_source != null) {
+	    while ((event = event_source.nextEvent(now)) != null) {
+		run_event(event,now);
+	    }
+	}
+	for (Chaos c : chaos) {
+	    if (c.run(now) && oracle != null) oracle.linkChanged(now);
+	}
+    }
+
+    /**
+     * Carries out a single event and marks it as done.
+     * @param event the event to run
+     * @param now current time
+     */
+    private void run_event(Event event, int now)
+    {
+	if (event.getOperation().equals("send")) {
+	    send_data(Integer.parseInt(event.getArgument(0)),Integer.parseInt(event.getArgument(1)));
+	}
+	else if (event.getOperation().equals("uplink")) {
+	    for (int i=0; i<links.length;i++) {
+		if (links[i].getRouter(0) == Integer.parseInt(event.getArgument(0)) && 
+		    links[i].getInterface(0) == Integer.parseInt(event.getArgument(1)) && 
+		    links[i].getRouter(1) == Integer.parseInt(event.getArgument(2)) && 
+		    links[i].getInterface(1) == Integer.parseInt(event.getArgument(3)) ) {
+		    System.out.println("Setting link status to up "+links[i]);
+		    links[i].setState(true);
+		    if (oracle != null) oracle.linkChanged(now);
 		}
-		else if (event.getOperation().equals("dumpPacketStats")) {
-		    System.out.println("event "+event);
-		    if (event.getArgument(0).equals("all")) {
-			for (int i=0; i<routers.length; i++) {
-			    routers[i].dumpPacketStats();
-			}   
-		    }
-		    else {
-			routers[Integer.parseInt(event.getArgument(0))].dumpPacketStats();
-		    }
+	    }
+	}
+	else if (event.getOperation().equals("downlink")) {
+	    for (int i=0; i<links.length;i++) {
+		if (links[i].getRouter(0) == Integer.parseInt(event.getArgument(0)) && 
+		    links[i].getInterface(0) == Integer.parseInt(event.getArgument(1)) && 
+		    links[i].getRouter(1) == Integer.parseInt(event.getArgument(2)) && 
+		    links[i].getInterface(1) == Integer.parseInt(event.getArgument(3)) ) {
+		    System.out.println("Setting link status to down "+links[i]);
+		    links[i].setState(false);
+		    if (oracle != null) oracle.linkChanged(now);
 		}
-		events[count].setDone();
+	    }
+	}
+	else if (event.getOperation().equals("dumprt")) {
+	    if (event.getArgument(0).equals("all")) {
+		for (int i=0; i<routers.length; i++) {
+		    if (is_local(i)) dump_routing_table(event,routers[i],now);
+		}   
+	    }
+	    else if (is_local(router(Integer.parseInt(event.getArgument(0))).getIndex())) {
+		dump_routing_table(event,router(Integer.parseInt(event.getArgument(0))),now);
+	    }
+	}
+	else if (event.getOperation().equals("dumpPacketStats")) {
+	    System.out.println("event "+event);
+	    if (event.getArgument(0).equals("all")) {
+		for (int i=0; i<routers.length; i++) {
+		    if (is_local(i)) routers[i].dumpPacketStats();
+		}   
+	    }
+	    else if (is_local(router(Integer.parseInt(event.getArgument(0))).getIndex())) {
+		router(Integer.parseInt(event.getArgument(0))).dumpPacketStats();
+	    }
+	}
+	else if (event.getOperation().equals("dumpMetrics")) {
+	    System.out.println("event "+event);
+	    System.out.print(Metrics.dump());
+	}
+	else if (event.getOperation().equals("checkRoutes")) {
+	    System.out.println("event "+event);
+	    if (partition != null) {
+		System.out.println("checkRoutes needs every router, not run in a partitioned simulation");
+	    }
+	    else {
+		oracle.check(routers, addresses, now);
+	    }
+	}
+	event.setDone();
+    }
+
+    /**
+     * Dumps one router's routing table in the form the dumprt event asks
+     * for : text, a binary snapshot appended to a file, suffixed .part<k>
+     * in a partitioned run as the sample files are, or only the routes
+     * changed since that router's last diff dump.
+     * @param event the dumprt event
+     * @param r the router
+     * @param now current time
+     */
+    private void dump_routing_table(Event event, Router r, int now)
+    {
+	if (event.getNumberOfArgumentss() == 1) {
+	    r.dumpRoutingTable();
+	}
+	else if (event.getArgument(1).equals("diff")) {
+	    snapshots.diff(r);
+	}
+	else {
+	    try {
+		snapshots.write(event.getArgument(2)+part_suffix(),now,r);
+	    } catch (IOException e) {
+		System.out.println("Error writing snapshot : "+e);
+		System.exit(1);
+	    }
+	}
+    }
+
+    /**
+     * Creates a data packet with the next sequence number and hands
+     * it to the source router. Every process of a partitioned run counts
+     * the packet so sequence numbers match a single process run.
+     * @param src source router id
+     * @param dst destination router id
+     */
+    private void send_data(int src, int dst)
+    {
+	Packet packet = new Packet(src,dst);
+	packet.setType(Packet.DATA);
+	packet_counter++;
+	packet.setSequenceNumber(packet_counter);
+	Router r = router(src);
+	if (is_local(r.getIndex())) r.send(packet);
+    }
+
+    /**
+     * Generates the packets each traffic flow sends at time <code>now</code>
+     * @param now current time
+     */
+    private void process_flows(int now)
+    {
+	for (int i = 0; i<flows.length; i++) {
+	    int n = flows[i].packetsAt(now);
+	    for (int j = 0; j<n; j++) {
+		send_data(flows[i].getSource(),flows[i].getDestination());
 	    }
 	}
     }
 
     /**
      * Process packets, move them from the out queue of one end of the link
-     * to the in queue of the other end. Do this for both ends.
+     * to the in queue of the other end. Do this for both ends. In a
+     * partitioned run packets for remote ends are then exchanged with
+     * the other processes, which also synchronises the time step.
      */
     private void process_packets()
     {
-	for (int i = 0; i<links.length; i++) {
-	    links[i].movePackets();	    
+	if (mover != null) {
+	    mover.run();
+	}
+	else {
+	    for (int i = 0; i<links.length; i++) {
+		// A link with empty out bound queues has nothing to move or print.
+		if (!links[i].hasQueued()) continue;
+		if (partition == null || partition.isLocal(links[i])) {
+		    if (Metrics.on) {
+			Metrics.queue(links[i], links[i].queueLength(0,false));
+			Metrics.queue(links[i], links[i].queueLength(1,false));
+		    }
+		    links[i].movePackets();	    
+		}
+	    }
+	}
+	if (partition != null) {
+	    try {
+		partition.exchange(links);
+	    } catch (IOException e) {
+		System.out.println("Partition exchange failed : "+e);
+		System.exit(1);
+	    }
 	}
     }
 
@@ -188,31 +590,355 @@ public class Simulator
      */
     private void process_routers(int now)
     {
+	if (actors != null) {
+	    actors.run(now);
+	    return;
+	}
 	for (int i = 0; i<routers.length; i++) {
+	    if (!is_local(i)) continue;
 	    routers[i].setTimeStep(now);
 	    routers[i].go();
 	}
     }
 
+    /**
+     * Runs the tasks of a single time step, without printing the time,
+     * and then hands the step's route changes to the route listeners.
+     * @param now current time
+     */
+    void tick(int now)
+    {
+	if (!Metrics.on) {
+	    process_events(now);
+	    process_flows(now);
+	    process_routers(now);
+	    process_packets();
+	    if (RouteChange.on) RouteChange.dispatch();
+	    return;
+	}
+	long start = System.nanoTime();
+	long t = start;
+	process_events(now);
+	t = Metrics.time(Metrics.EVENTS, t);
+	process_flows(now);
+	t = Metrics.time(Metrics.FLOWS, t);
+	process_routers(now);
+	t = Metrics.time(Metrics.ROUTERS, t);
+	process_packets();
+	Metrics.time(Metrics.LINKS, t);
+	if (RouteChange.on) RouteChange.dispatch();
+	Metrics.endTick(now, start);
+    }
+
     /**
      * Main loop of the simulator that runs through all the tasks at each
      * time step.  At each time step the Simulator carries out (in order)   
-     * event processing <code>process_events</code>, routers tasks       
+     * event processing <code>process_events</code>, traffic flows
+     * <code>process_flows</code>, routers tasks       
      * <code>process_routers</code>, 
      * packet forwarding <code>process_packets</code>
      *                                   
      */
     public void main_loop()
     {
-	for (int now=1; now<stop_time; now++) {
-	    System.out.println("Time :"+now);
-	    process_events(now);
-	    process_routers(now);
-	    process_packets();
-	}
+	run_until(stop_time - 1);
+	close();
 	check_completed();
     }
 
+    /**
+     * Runs the next n time steps, printing the time of each as
+     * <code>main_loop</code> does. The first call starts the run.
+     * @param n number of time steps
+     * @return the last time step run
+     */
+    public int step(int n)
+    {
+	PrintStream was = silence();
+	try {
+	    start();
+	    if (monitor != null) monitor.resume();
+	    for (int k = 0; k < n; k++) {
+		now++;
+		System.out.println("Time :"+now);
+		tick(now);
+		if (sampler != null) sampler.sample(now);
+		if (monitor != null) monitor.tick(now);
+	    }
+	} finally {
+	    if (monitor != null) monitor.pause();
+	    restore(was);
+	}
+	return now;
+    }
+
+    /**
+     * Runs time steps up to and including t, ignoring the stop time.
+     * @param t time step to stop after
+     * @return the last time step run
+     */
+    public int run_until(int t)
+    {
+	return step(Math.max(0, t - now));
+    }
+
+    /**
+     * Gets the last time step run, 0 before the first.
+     * @return int
+     */
+    public int get_time()
+    {
+	return now;
+    }
+
+    /**
+     * Gets the stop time set by the configuration.
+     * @return int
+     */
+    public int get_stop_time()
+    {
+	return stop_time;
+    }
+
+    /**
+     * Starts the sampler, the worker threads and the monitor, once.
+     */
+    private void start()
+    {
+	if (started) return;
+	started = true;
+	open_sampler();
+	Vector<Router> local = new Vector<Router>();
+	for (int i = 0; i<routers.length; i++) {
+	    if (is_local(i)) local.addElement(routers[i]);
+	}
+	Vector<Link> local_links = new Vector<Link>();
+	for (Link l : links) {
+	    if (partition == null || partition.isLocal(l)) local_links.addElement(l);
+	}
+	if (actor_threads >= 0) {
+	    actors = new RouterActors(local.toArray(new Router[0]), links, actor_threads);
+	}
+	if (link_threads >= 0) {
+	    mover = new LinkMover(local_links.toArray(new Link[0]), link_threads);
+	}
+	for (Chaos c : chaos) {
+	    c.open(local.toArray(new Router[0]), links);
+	}
+	if (monitored) {
+	    monitor = new Monitor(local.toArray(new Router[0]), local_links.toArray(new Link[0]));
+	}
+    }
+
+    /**
+     * Ends the run, closing the snapshot files and the sampler and
+     * stopping the worker threads. The process wide state is put back as
+     * it was before any simulator : metrics off and cleared, tables on
+     * the heap and the route listeners of this simulator removed, so
+     * another simulator may be set up. Time steps may not be run after.
+     */
+    public void close()
+    {
+	PrintStream was = silence();
+	try {
+	    for (Chaos c : chaos) c.close();
+	    report_adaptive();
+	    snapshots.close();
+	    if (sampler != null) sampler.close();
+	    if (actors != null) actors.close();
+	    if (mover != null) mover.close();
+	    if (monitor != null) monitor.close();
+	    release();
+	} finally {
+	    restore(was);
+	}
+    }
+
+    // Prints the updates the adaptive routers sent against those a fixed
+    // update interval would have, and the routing packets they sent.
+    private void report_adaptive()
+    {
+	long sent = 0;
+	long fixed = 0;
+	long control = 0;
+	int n = 0;
+	for (int i = 0; i < routers.length; i++) {
+	    int[] u = is_local(i) ? routers[i].getUpdateCounts() : null;
+	    if (u == null) continue;
+	    sent += u[0];
+	    fixed += u[1];
+	    control += routers[i].getControlCounts()[0];
+	    n++;
+	}
+	if (n == 0) return;
+	System.out.println("Adaptive updates : "+n+" routers sent "+sent+" updates, "+fixed+" at a fixed interval, "
+			   +(fixed == 0 ? 0 : 100 * (fixed - sent) / fixed)+"% saved, "+control+" routing packets");
+    }
+
+    // Puts back the process wide state taken by claim.
+    private void release()
+    {
+	synchronized (Simulator.class) {
+	    if (active != this) return;
+	    if (oracle != null) RouteChange.removeListener(oracle);
+	    for (RouteListener l : listeners) RouteChange.removeListener(l);
+	    listeners.clear();
+	    Metrics.reset();
+	    RouteStore.reset();
+	    active = null;
+	}
+    }
+
+    /**
+     * Queues a data packet from src to dst at its source router, to be
+     * forwarded from the next time step.
+     * @param src source router id
+     * @param dst destination router id
+     * @throws IllegalArgumentException if no router has the id src
+     */
+    public void send(int src, int dst)
+    {
+	lookup(src);
+	change(() -> send_data(src, dst));
+    }
+
+    /**
+     * Looks up the interface a router sends a destination to.
+     * @param id router id
+     * @param dst destination router id
+     * @return interface, -1 for local, -2 for unknown
+     * @throws IllegalArgumentException if no router has the id
+     */
+    public int get_next_hop(int id, int dst)
+    {
+	return lookup(id).getNextHop(dst);
+    }
+
+    /**
+     * Looks up the metric of a router's route to a destination.
+     * @param id router id
+     * @param dst destination router id
+     * @return the metric, or -1 if there is no route
+     * @throws IllegalArgumentException if no router has the id
+     */
+    public int get_metric(int id, int dst)
+    {
+	return lookup(id).getMetric(dst);
+    }
+
+    /**
+     * Counts the routes in a router's table.
+     * @param id router id
+     * @return number of routes, or -1 if the table cannot be exported
+     * @throws IllegalArgumentException if no router has the id
+     */
+    public int get_table_size(int id)
+    {
+	int[] routes = lookup(id).getRoutes();
+	return (routes == null) ? -1 : routes.length / 3;
+    }
+
+    /**
+     * Gets a router's packet counters as (sent, received, dropped,
+     * forwarded).
+     * @param id router id
+     * @return int[]
+     * @throws IllegalArgumentException if no router has the id
+     */
+    public int[] get_packet_counts(int id)
+    {
+	return lookup(id).getPacketCounts();
+    }
+
+    /**
+     * Gets the counters of a router's end of the link on an interface as
+     * (sent, received, dropped).
+     * @param id router id
+     * @param iface interface of the router
+     * @return int[], or null if no link is attached there
+     * @throws IllegalArgumentException if no router has the id
+     */
+    public int[] get_link_counters(int id, int iface)
+    {
+	lookup(id);
+	for (Link l : links) {
+	    for (int end = 0; end < 2; end++) {
+		if (l.getRouter(end) == id && l.getInterface(end) == iface) return l.getCounters(end);
+	    }
+	}
+	return null;
+    }
+
+    /**
+     * Sets the state of the link on a router's interface, as the uplink
+     * and downlink events do.
+     * @param id router id
+     * @param iface interface of the router
+     * @param up the new state
+     * @throws IllegalArgumentException if no router has the id
+     */
+    public void set_link_state(int id, int iface, boolean up)
+    {
+	lookup(id);
+	change(() -> {
+		for (Link l : links) {
+		    for (int end = 0; end < 2; end++) {
+			if (l.getRouter(end) == id && l.getInterface(end) == iface) {
+			    l.setState(up);
+			    if (oracle != null) oracle.linkChanged(now);
+			}
+		    }
+		}
+	    });
+    }
+
+    // Runs a change made between time steps, under the monitor's lock
+    // when JMX clients may be reading the routers and links.
+    private void change(Runnable r)
+    {
+	if (monitor != null) monitor.change(r);
+	else r.run();
+    }
+
+    // Discards the output of the current thread if this simulator is
+    // quiet, returning where the thread printed before.
+    private PrintStream silence()
+    {
+	return quiet ? ThreadOut.redirect(ThreadOut.SILENT) : null;
+    }
+
+    private void restore(PrintStream was)
+    {
+	if (quiet) ThreadOut.redirect(was);
+    }
+
+    // Appended to the files each process writes in a partitioned run, so
+    // the processes do not write over each other's.
+    private String part_suffix()
+    {
+	return (partition == null) ? "" : ".part"+partition.getIndex();
+    }
+
+    /**
+     * Starts the sampler on the routers run by this process, each
+     * process of a partitioned run writing its own file.
+     */
+    private void open_sampler()
+    {
+	if (sampler == null) return;
+	Vector<Router> local = new Vector<Router>();
+	for (int i = 0; i<routers.length; i++) {
+	    if (is_local(i)) local.addElement(routers[i]);
+	}
+	String suffix = part_suffix();
+	try {
+	    sampler.open(local.toArray(new Router[0]), links, suffix);
+	} catch (IOException e) {
+	    System.out.println("Cannot open sample file "+sampler.getFile()+suffix+" : "+e);
+	    System.exit(1);
+	}
+    }
+
     /**
      * Checks that all events have been processed.
      */
@@ -225,24 +951,137 @@ public class Simulator
 		    unused_events++;
 		}
 	    }
+	if (event_source != null) {
+	    unused_events += event_source.remainingEvents();
+	}
 	if (unused_events > 0) 
 	    {
 		System.out.println("Error, "+unused_events+" events not run.");
 	    }
     }
     
+    /**
+     * Starts n child simulator processes that each run one partition of
+     * the configuration, sending the output of process k to 
+     * <code>&lt;config file&gt;.part&lt;k&gt;</code>, and waits for them.
+     * @param n number of processes
+     * @param stream whether the children stream events
+     * @param threads actor threads for each child, -1 for lockstep
+     * @param movers link threads for each child, -1 for one
+     * @param cf configuration file
+     * @return the exit status
+     */
+    private static int run_partitions(int n, boolean stream, int threads, int movers, String cf) throws Exception
+    {
+	// Each child listens on a free port of its own and reports it here.
+	ServerSocket parent = new ServerSocket(0, n, InetAddress.getLoopbackAddress());
+	parent.setSoTimeout(60000);
+	Process[] child = new Process[n];
+	String java = System.getProperty("java.home")+File.separator+"bin"+File.separator+"java";
+	for (int k=0; k<n; k++) {
+	    Vector<String> cmd = new Vector<String>();
+	    cmd.addElement(java);
+	    cmd.addElement("-cp");
+	    cmd.addElement(System.getProperty("java.class.path"));
+	    cmd.addElement("Simulator");
+	    cmd.addElement("-part");
+	    cmd.addElement(""+k);
+	    cmd.addElement(""+n);
+	    cmd.addElement(""+parent.getLocalPort());
+	    if (stream) cmd.addElement("-stream");
+	    if (threads >= 0) {
+		cmd.addElement("-actors");
+		cmd.addElement(""+threads);
+	    }
+	    if (movers >= 0) {
+		cmd.addElement("-links");
+		cmd.addElement(""+movers);
+	    }
+	    cmd.addElement(cf);
+	    ProcessBuilder pb = new ProcessBuilder(cmd);
+	    pb.redirectErrorStream(true);
+	    pb.redirectOutput(new File(cf+".part"+k));
+	    child[k] = pb.start();
+	}
+	try {
+	    Partition.rendezvous(parent, n);
+	} catch (IOException e) {
+	    System.out.println("Partitions did not start : "+e);
+	    for (Process c : child) c.destroy();
+	} finally {
+	    parent.close();
+	}
+	int status = 0;
+	for (int k=0; k<n; k++) {
+	    status = Math.max(status, child[k].waitFor());
+	}
+	System.out.println("Partitions finished, output in "+cf+".part0 .. "+cf+".part"+(n-1));
+	return status;
+    }
+
     /**
      * main function called from the command line with one argument
-     * which is the configuration file.
+     * which is the configuration file, optionally preceded by 
+     * <code>-stream</code> to read events as the clock reaches them and
+     * <code>-partitions n</code> to split the routers across n local
+     * processes, <code>-actors n</code> to run the routers on n
+     * threads and <code>-links n</code> to move packets across the links
+     * on n threads, 0 for one per processor. <code>-part k n port</code> is
+     * used by the partition processes.
      * @param args
      */
-    public static void main (String args[])
+    public static void main (String args[]) throws Exception
     {
-	if (args.length != 1) {
-	    System.out.println("Usage : java Simulator <config file>");
+	boolean stream = false;
+	int partitions = 0;
+	int threads = -1;
+	int movers = -1;
+	int part = -1;
+	int parts = 0;
+	int parent = 0;
+	int a = 0;
+	try {
+	    for (; a < args.length - 1; a++) {
+		if (args[a].equals("-stream")) {
+		    stream = true;
+		}
+		else if (args[a].equals("-partitions")) {
+		    partitions = Integer.parseInt(args[++a]);
+		}
+		else if (args[a].equals("-actors")) {
+		    threads = Integer.parseInt(args[++a]);
+		}
+		else if (args[a].equals("-links")) {
+		    movers = Integer.parseInt(args[++a]);
+		}
+		else if (args[a].equals("-part")) {
+		    part = Integer.parseInt(args[++a]);
+		    parts = Integer.parseInt(args[++a]);
+		    parent = Integer.parseInt(args[++a]);
+		}
+		else {
+		    break;
+		}
+	    }
+	} catch (RuntimeException e) {
+	    a = -1;
+	}
+	if (a != args.length - 1) {
+	    System.out.println("Usage : java Simulator [-stream] [-partitions <n>] [-actors <threads>] [-links <threads>] <config file>");
 	    System.exit(1);
 	}
-	Simulator sim = new Simulator(args[0]);
+	if (partitions > 1) {
+	    System.exit(run_partitions(partitions, stream, threads, movers, args[a]));
+	}
+	Simulator sim = new Simulator(args[a],stream);
+	sim.set_actors(threads);
+	sim.set_link_threads(movers);
+	if (part >= 0) {
+	    sim.set_partition(new Partition(part, parts, parent, sim.get_addresses()));
+	}
 	sim.main_loop();
+	if (sim.partition != null) {
+	    sim.partition.close();
+	}
     }
 }
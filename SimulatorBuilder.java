@@ -0,0 +1,279 @@
+import java.util.Vector;
+import java.util.function.Consumer;
+
+/**
+ * The <code>SimulatorBuilder</code> class sets up a <code>Simulator</code>
+ * from code rather than a configuration file, so that test harnesses and
+ * optimisers can run many short simulations in one process. Each call is
+ * kept and replayed in order by <code>build</code> on a
+ * <code>Config</code>, which creates the routers, links and events
+ * directly without writing or parsing any text. As in a file, options
+ * must come before the routers they apply to. For example
+ * <pre>
+ *   Simulator sim = new SimulatorBuilder().quiet(true).preverse(true)
+ *       .router(0, 2, "DV").router(1, 2, "DV").router(2, 2, "DV")
+ *       .link(0, 0, 1, 1, 0, 1).link(1, 1, 1, 2, 0, 1).link(2, 1, 1, 0, 1, 1)
+ *       .downlink(10, 0, 0, 1, 0).build();
+ *   sim.run_until(20);
+ *   int hop = sim.get_next_hop(0, 1);
+ * </pre>
+ * The simulator is then driven with <code>step</code> and
+ * <code>run_until</code> and queried between steps.
+ * <p>
+ * Metrics, the route store and route listeners are process wide, so
+ * only one simulator may be set up or run at a time : simulations in one
+ * process run one after the other, each closed with
+ * <code>Simulator.close</code> before the next is built, and
+ * <code>build</code> throws <code>IllegalStateException</code>
+ * otherwise. Closing puts that state back as it was, so each simulation
+ * starts from the same defaults.
+ */
+public class SimulatorBuilder
+{
+    private Vector<Consumer<Config>> steps = new Vector<Consumer<Config>>();
+    private int stop = -1;
+    private boolean quiet = false;
+    private int actors = -1;
+    private int linkThreads = -1;
+
+    /**
+     * Adds a line of configuration as it would appear in a file.
+     * @param s the line
+     * @return this builder
+     */
+    public SimulatorBuilder line(String s)
+    {
+	return add(c -> c.process(s));
+    }
+
+    private SimulatorBuilder add(Consumer<Config> step)
+    {
+	steps.addElement(step);
+	return this;
+    }
+
+    /**
+     * Sets the update interval of the routers that follow.
+     * @param u update interval
+     * @return this builder
+     */
+    public SimulatorBuilder updateInterval(int u)
+    {
+	return add(c -> c.setUpdateInterval(u));
+    }
+
+    /**
+     * Turns poisoned reverse on or off for the routers that follow.
+     * @param on whether to poison reverse routes
+     * @return this builder
+     */
+    public SimulatorBuilder preverse(boolean on)
+    {
+	return add(c -> c.setPreverse(on));
+    }
+
+    /**
+     * Turns route expiry on or off for the routers that follow.
+     * @param on whether routes expire
+     * @return this builder
+     */
+    public SimulatorBuilder expire(boolean on)
+    {
+	return add(c -> c.setExpire(on));
+    }
+
+    /**
+     * Jitters the updates of the routers that follow.
+     * @param max largest jitter, below the update interval
+     * @param seed random seed
+     * @return this builder
+     */
+    public SimulatorBuilder jitter(int max, long seed)
+    {
+	return add(c -> c.setJitter(max, seed));
+    }
+
+    /**
+     * Backs off the updates of the routers that follow while their tables
+     * are stable.
+     * @param max longest interval between updates, -1 for off
+     * @return this builder
+     */
+    public SimulatorBuilder adaptive(int max)
+    {
+	return add(c -> c.setAdaptive(max));
+    }
+
+    /**
+     * Sets the stop time used by <code>main_loop</code>.
+     * @param t stop time
+     * @return this builder
+     */
+    public SimulatorBuilder stop(int t)
+    {
+	stop = t;
+	return this;
+    }
+
+    /**
+     * Adds a router.
+     * @param id router id
+     * @param interfaces number of interfaces
+     * @param algorithm routing algorithm class, e.g. DV
+     * @return this builder
+     */
+    public SimulatorBuilder router(int id, int interfaces, String algorithm)
+    {
+	return add(c -> c.addRouter(id, interfaces, algorithm));
+    }
+
+    /**
+     * Puts a router in an area, the router must already be added.
+     * @param id router id
+     * @param area area id
+     * @return this builder
+     */
+    public SimulatorBuilder area(int id, int area)
+    {
+	return add(c -> c.setArea(id, area));
+    }
+
+    /**
+     * Adds a link that starts up.
+     * @param r0 router 0's id
+     * @param i0 router 0's interface
+     * @param w0 weight of interface 0
+     * @param r1 router 1's id
+     * @param i1 router 1's interface
+     * @param w1 weight of interface 1
+     * @return this builder
+     */
+    public SimulatorBuilder link(int r0, int i0, int w0, int r1, int i1, int w1)
+    {
+	return link(r0, i0, w0, r1, i1, w1, true);
+    }
+
+    /**
+     * Adds a link.
+     * @param r0 router 0's id
+     * @param i0 router 0's interface
+     * @param w0 weight of interface 0
+     * @param r1 router 1's id
+     * @param i1 router 1's interface
+     * @param w1 weight of interface 1
+     * @param up whether the link starts up
+     * @return this builder
+     */
+    public SimulatorBuilder link(int r0, int i0, int w0, int r1, int i1, int w1, boolean up)
+    {
+	return add(c -> {
+		Link l = new Link(r0, i0, w0, r1, i1, w1);
+		l.setState(up);
+		c.addLink(l);
+	    });
+    }
+
+    /**
+     * Sends a data packet at time t.
+     * @param t time
+     * @param src source router id
+     * @param dst destination router id
+     * @return this builder
+     */
+    public SimulatorBuilder send(int t, int src, int dst)
+    {
+	return add(c -> c.addEvent(new Event("send", t, new String[] { ""+src, ""+dst })));
+    }
+
+    /**
+     * Adds a traffic flow.
+     * @param start first time step
+     * @param stop last time step
+     * @param src source router id
+     * @param dst destination router id
+     * @param kind <code>Flow.CBR</code> or <code>Flow.POISSON</code>
+     * @param rate packets per time step
+     * @return this builder
+     */
+    public SimulatorBuilder flow(int start, int stop, int src, int dst, int kind, double rate)
+    {
+	return add(c -> c.addFlow(new Flow(src, dst, start, stop, kind, rate)));
+    }
+
+    /**
+     * Brings a link up at time t.
+     * @param t time
+     * @param r0 router 0's id
+     * @param i0 router 0's interface
+     * @param r1 router 1's id
+     * @param i1 router 1's interface
+     * @return this builder
+     */
+    public SimulatorBuilder uplink(int t, int r0, int i0, int r1, int i1)
+    {
+	return add(c -> c.addEvent(new Event("uplink", t, new String[] { ""+r0, ""+i0, ""+r1, ""+i1 })));
+    }
+
+    /**
+     * Takes a link down at time t.
+     * @param t time
+     * @param r0 router 0's id
+     * @param i0 router 0's interface
+     * @param r1 router 1's id
+     * @param i1 router 1's interface
+     * @return this builder
+     */
+    public SimulatorBuilder downlink(int t, int r0, int i0, int r1, int i1)
+    {
+	return add(c -> c.addEvent(new Event("downlink", t, new String[] { ""+r0, ""+i0, ""+r1, ""+i1 })));
+    }
+
+    /**
+     * Discards what the simulator prints on the threads driving it.
+     * @param q whether to discard the output
+     * @return this builder
+     */
+    public SimulatorBuilder quiet(boolean q)
+    {
+	quiet = q;
+	return this;
+    }
+
+    /**
+     * Runs the routers on worker threads, as <code>-actors</code> does.
+     * @param n number of threads, 0 for one per processor
+     * @return this builder
+     */
+    public SimulatorBuilder actors(int n)
+    {
+	actors = n;
+	return this;
+    }
+
+    /**
+     * Moves packets across the links on worker threads, as
+     * <code>-links</code> does.
+     * @param n number of threads, 0 for one per processor
+     * @return this builder
+     */
+    public SimulatorBuilder linkThreads(int n)
+    {
+	linkThreads = n;
+	return this;
+    }
+
+    /**
+     * Creates the simulator. Worker threads start with the first step
+     * and stop with <code>Simulator.close</code>.
+     * @return Simulator
+     * @throws IllegalStateException if another simulator is not closed
+     */
+    public Simulator build()
+    {
+	Simulator sim = new Simulator(steps, quiet);
+	if (stop >= 0) sim.set_stop_time(stop);
+	sim.set_actors(actors);
+	sim.set_link_threads(linkThreads);
+	return sim;
+    }
+}
@@ -0,0 +1,86 @@
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Locale;
+
+/**
+ * The <code>ThreadOut</code> class is a <code>System.out</code> that each
+ * thread may point somewhere else. Router actors print into their
+ * worker's buffer and quiet simulators into nothing, while every other
+ * thread still prints to the console. It is installed once, the first
+ * time a thread is redirected, and stays in place, so simulators that
+ * redirect their own threads never undo each other.
+ */
+public class ThreadOut extends PrintStream
+{
+    /**
+     * Drops everything printed to it.
+     */
+    public static PrintStream SILENT = new PrintStream(new OutputStream() {
+	    public void write(int b) { }
+	    public void write(byte[] b, int off, int len) { }
+	});
+
+    // Where the current thread prints, null for the console.
+    private static ThreadLocal<PrintStream> target = new ThreadLocal<PrintStream>();
+    private PrintStream console;
+
+    private ThreadOut(PrintStream c)
+    {
+	super(c);
+	console = c;
+    }
+
+    /**
+     * Makes <code>System.out</code> a <code>ThreadOut</code> if it is not
+     * one already.
+     */
+    public static synchronized void install()
+    {
+	if (!(System.out instanceof ThreadOut)) System.setOut(new ThreadOut(System.out));
+    }
+
+    /**
+     * Sends what the current thread prints to <code>System.out</code> to
+     * p instead, installing the stream if need be.
+     * @param p where to print, null for the console
+     * @return where the thread printed before, for putting it back
+     */
+    public static PrintStream redirect(PrintStream p)
+    {
+	install();
+	PrintStream was = target.get();
+	target.set(p);
+	return was;
+    }
+
+    private PrintStream out()
+    {
+	PrintStream p = target.get();
+	return (p == null) ? console : p;
+    }
+
+    public void write(int b) { out().write(b); }
+    public void write(byte[] b, int off, int len) { out().write(b, off, len); }
+    public void flush() { out().flush(); }
+    public void print(boolean b) { out().print(b); }
+    public void print(char c) { out().print(c); }
+    public void print(int i) { out().print(i); }
+    public void print(long l) { out().print(l); }
+    public void print(float f) { out().print(f); }
+    public void print(double d) { out().print(d); }
+    public void print(char[] s) { out().print(s); }
+    public void print(String s) { out().print(s); }
+    public void print(Object o) { out().print(o); }
+    public void println() { out().println(); }
+    public void println(boolean b) { out().println(b); }
+    public void println(char c) { out().println(c); }
+    public void println(int i) { out().println(i); }
+    public void println(long l) { out().println(l); }
+    public void println(float f) { out().println(f); }
+    public void println(double d) { out().println(d); }
+    public void println(char[] s) { out().println(s); }
+    public void println(String s) { out().println(s); }
+    public void println(Object o) { out().println(o); }
+    public PrintStream printf(String f, Object... a) { return out().printf(f, a); }
+    public PrintStream printf(Locale l, String f, Object... a) { return out().printf(l, f, a); }
+}
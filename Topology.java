@@ -0,0 +1,305 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Vector;
+
+/**
+ * The <code>Topology</code> class compiles a configuration file into a
+ * binary topology file, and loads one into a <code>Simulator</code>
+ * quickly. Running it as
+ * <code>java Topology &lt;config file&gt; &lt;topology file&gt;</code>
+ * compiles, and the <code>Simulator</code> loads any file starting with
+ * the topology magic in place of a configuration file. Compiling reads
+ * the file through <code>Config</code>, so it takes the same lines and
+ * reports the same errors.
+ * <p>
+ * The file holds, big endian,
+ * <ul>
+ * <li>the magic 0x44565450 and the format version,</li>
+ * <li>the routing algorithm class names,</li>
+ * <li>the option lines, such as <code>stop</code>, <code>store</code>,
+ * <code>area</code> or <code>flow</code>, kept as text and applied by
+ * <code>Config</code> once the routers are loaded,</li>
+ * <li>the routers table, one record per router with the update interval,
+ * poisoned reverse, expiry, jitter and adaptive update settings in force where it was
+ * defined,</li>
+ * <li>the links table, with each link's state and queue settings,</li>
+ * <li>the events, sorted by the time step they run at, keeping file
+ * order within a step.</li>
+ * </ul>
+ * The loader maps the file, creates routing algorithms through one cached
+ * constructor per class rather than a class lookup per router, and prints
+ * nothing per router, link or event.
+ */
+public class Topology
+{
+    private static int MAGIC = 0x44565450;
+    private static int VERSION = 2;
+
+    // Event operations, by code.
+    private static String[] OPS = { "send", "uplink", "downlink", "dumprt",
+				     "dumpPacketStats", "dumpMetrics", "checkRoutes" };
+
+    private static int PREVERSE = 1;
+    private static int EXPIRE = 2;
+    private static int UP = 1;
+
+    /**
+     * Is the file a compiled topology.
+     * @param file the file name
+     * @return whether it starts with the topology magic
+     */
+    public static boolean isTopology(String file)
+    {
+	try (InputStream in = Files.newInputStream(Paths.get(file))) {
+	    byte[] b = new byte[4];
+	    return in.read(b) == 4 && ByteBuffer.wrap(b).getInt() == MAGIC;
+	} catch (IOException e) {
+	    return false;
+	}
+    }
+
+    /**
+     * Compiles a configuration file into a topology file. Errors are
+     * reported as <code>Config</code> reports them.
+     * @param cfg the configuration file
+     * @param out the topology file to write
+     * @return number of routers, links and events
+     * @throws IOException if a file cannot be read or written
+     */
+    public static int[] compile(String cfg, String out) throws IOException
+    {
+	Compiler c = new Compiler();
+	BufferedReader input = new BufferedReader(new FileReader(cfg));
+	String s;
+	while ((s = input.readLine()) != null) {
+	    c.process(s);
+	}
+	input.close();
+	// Events due at or before the first step all run in it, the sort
+	// keeps file order within a step.
+	Collections.sort(c.events, (a, b) -> Integer.compare(Math.max(1, a.getTime()), Math.max(1, b.getTime())));
+
+	DataOutputStream o = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+	o.writeInt(MAGIC);
+	o.writeInt(VERSION);
+	o.writeInt(c.algs.size());
+	for (String a : c.algs) string(o, a);
+	o.writeInt(c.options.size());
+	for (String a : c.options) string(o, a);
+	o.writeInt(c.nrouters);
+	c.routerBytes.writeTo(o);
+	o.writeInt(c.nlinks);
+	c.linkBytes.writeTo(o);
+	o.writeInt(c.events.size());
+	for (Event e : c.events) {
+	    o.writeByte(code(e.getOperation()));
+	    o.writeInt(e.getTime());
+	    o.writeByte(e.getNumberOfArgumentss());
+	    for (int i = 0; i < e.getNumberOfArgumentss(); i++) string(o, e.getArgument(i));
+	}
+	o.close();
+	return new int[] { c.nrouters, c.nlinks, c.events.size() };
+    }
+
+    /**
+     * Loads a topology file into the simulator.
+     * @param file the topology file
+     * @param sim the simulator
+     * @throws IOException if the file cannot be read or is not a topology
+     */
+    public static void load(String file, Simulator sim) throws IOException
+    {
+	ByteBuffer b;
+	try (FileChannel ch = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+	    b = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+	}
+	if (b.getInt() != MAGIC || b.getInt() != VERSION) {
+	    throw new IOException("not a version "+VERSION+" topology file");
+	}
+	String[] algs = new String[b.getInt()];
+	Constructor<?>[] make = new Constructor<?>[algs.length];
+	for (int k = 0; k < algs.length; k++) {
+	    algs[k] = string(b);
+	    try {
+		make[k] = Class.forName(algs[k]).getDeclaredConstructor();
+	    } catch (ReflectiveOperationException e) {
+		throw new IOException("cannot load routing algorithm "+algs[k]+" : "+e);
+	    }
+	}
+	Vector<String> options = new Vector<String>();
+	for (int k = b.getInt(); k > 0; k--) options.addElement(string(b));
+
+	AddressTable addresses = new AddressTable();
+	Router[] routers = new Router[b.getInt()];
+	for (int k = 0; k < routers.length; k++) {
+	    int id = b.getInt();
+	    int n = b.getInt();
+	    int a = b.getInt();
+	    int u = b.getInt();
+	    int flags = b.getInt();
+	    int jitter = b.getInt();
+	    long seed = b.getLong();
+	    int adaptive = b.getInt();
+	    addresses.add(id);
+	    RoutingAlgorithm alg;
+	    try {
+		alg = (RoutingAlgorithm) make[a].newInstance();
+	    } catch (ReflectiveOperationException e) {
+		throw new IOException("cannot create routing algorithm "+algs[a]+" : "+e);
+	    }
+	    routers[k] = new Router(id, n, algs[a], alg, u, (flags & PREVERSE) != 0, (flags & EXPIRE) != 0, addresses);
+	    if (jitter >= 0) routers[k].setUpdateJitter(jitter, seed);
+	    if (adaptive >= 0) routers[k].setAdaptiveUpdates(adaptive);
+	}
+	Link[] links = new Link[b.getInt()];
+	for (int k = 0; k < links.length; k++) {
+	    Link l = new Link(b.getInt(), b.getInt(), b.getInt(), b.getInt(), b.getInt(), b.getInt());
+	    l.setState((b.getInt() & UP) != 0);
+	    l.setCapacity(b.getInt());
+	    l.setRate(b.getInt());
+	    l.setDropPolicy(b.getInt());
+	    links[k] = l;
+	}
+	Event[] events = new Event[b.getInt()];
+	for (int k = 0; k < events.length; k++) {
+	    String op = OPS[b.get()];
+	    int time = b.getInt();
+	    String[] args = new String[b.get()];
+	    for (int i = 0; i < args.length; i++) args[i] = string(b);
+	    events[k] = new Event(op, time, args);
+	    if (op.equals("checkRoutes")) sim.enable_oracle();
+	}
+	sim.set_topology(routers, addresses, links, events);
+	Config config = new Config(options, sim, addresses);
+    }
+
+    /**
+     * A <code>Config</code> that writes the routers and links it reads as
+     * topology records and keeps the events and option lines, so a
+     * topology is read and checked exactly as a configuration file is.
+     */
+    private static class Compiler extends Config
+    {
+	Vector<String> algs = new Vector<String>();
+	HashMap<String, Integer> algIndex = new HashMap<String, Integer>();
+	Vector<String> options = new Vector<String>();
+	Vector<Event> events = new Vector<Event>();
+	ByteArrayOutputStream routerBytes = new ByteArrayOutputStream();
+	DataOutputStream routers = new DataOutputStream(routerBytes);
+	ByteArrayOutputStream linkBytes = new ByteArrayOutputStream();
+	DataOutputStream links = new DataOutputStream(linkBytes);
+	int nrouters = 0;
+	int nlinks = 0;
+
+	Compiler()
+	{
+	    super((Simulator) null);
+	}
+
+	void addRouter(int id, int n, String alg)
+	{
+	    checkRouter(id);
+	    Integer a = algIndex.get(alg);
+	    if (a == null) {
+		a = algs.size();
+		algs.addElement(alg);
+		algIndex.put(alg, a);
+	    }
+	    try {
+		routers.writeInt(id);
+		routers.writeInt(n);
+		routers.writeInt(a);
+		routers.writeInt(updateInterval);
+		routers.writeInt((preverse ? PREVERSE : 0) | (expire ? EXPIRE : 0));
+		routers.writeInt(jitter);
+		routers.writeLong(jitterSeed);
+		routers.writeInt(adaptive);
+	    } catch (IOException e) {
+		// Written to memory.
+	    }
+	    nrouters++;
+	}
+
+	void addLink(Link l)
+	{
+	    try {
+		for (int end = 0; end < 2; end++) {
+		    links.writeInt(l.getRouter(end));
+		    links.writeInt(l.getInterface(end));
+		    links.writeInt(l.getWeight(end));
+		}
+		links.writeInt(l.isUp() ? UP : 0);
+		links.writeInt(l.getCapacity());
+		links.writeInt(l.getRate());
+		links.writeInt(l.getDropPolicy());
+	    } catch (IOException e) {
+		// Written to memory.
+	    }
+	    nlinks++;
+	}
+
+	void addEvent(Event e)
+	{
+	    events.addElement(e);
+	}
+
+	void option(String[] t, String s)
+	{
+	    options.addElement(s);
+	}
+    }
+
+    private static int code(String op)
+    {
+	for (int k = 0; k < OPS.length; k++) {
+	    if (OPS[k].equals(op)) return k;
+	}
+	return -1;
+    }
+
+    private static void string(DataOutputStream o, String s) throws IOException
+    {
+	byte[] b = s.getBytes(StandardCharsets.UTF_8);
+	o.writeInt(b.length);
+	o.write(b);
+    }
+
+    private static String string(ByteBuffer b)
+    {
+	byte[] v = new byte[b.getInt()];
+	b.get(v);
+	return new String(v, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * main function called from the command line with a configuration
+     * file and the topology file to write.
+     * @param args
+     */
+    public static void main(String args[]) throws IOException
+    {
+	if (args.length != 2) {
+	    System.out.println("Usage : java Topology <config file> <topology file>");
+	    System.exit(1);
+	}
+	long start = System.nanoTime();
+	int[] n = compile(args[0], args[1]);
+	System.out.println("Compiled "+n[0]+" routers, "+n[1]+" links and "+n[2]+" events into "+args[1]
+			   +" in "+(System.nanoTime() - start) / 1000000+" ms");
+    }
+}